@@ -0,0 +1,70 @@
+package cydeo.benchmarks;
+
+import cydeo.utilities.Driver;
+import cydeo.utilities.ProcessReaper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openqa.selenium.By;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * The scenarios' search flow (open the page, type, submit, check the URL) on the in-JVM HTML engine
+ * against headless Chrome, on the local fixture. Each trial ends by printing the session's footprint:
+ * JVM heap after GC plus the processes the JVM started (driver and browser, Linux only).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 1, time = 10)
+@Measurement(iterations = 3, time = 10)
+public class BrowserlessBenchmark {
+
+    private static final By SEARCH_BOX = By.id("global-enhancements-search-query");
+
+    @Param({"htmlunit", "headless-chrome"})
+    public String browser;
+
+    private String fixtureUrl;
+
+    @Setup(Level.Trial)
+    public void openSession() {
+        System.setProperty("BROWSER", browser);
+        fixtureUrl = FixtureBenchmark.fixtureUrl();
+        Driver.getDriver().get(fixtureUrl);
+    }
+
+    @Benchmark
+    public boolean search() {
+        WebDriver driver = Driver.getDriver();
+        driver.get(fixtureUrl);
+        WebElement searchBox = driver.findElement(SEARCH_BOX);
+        searchBox.sendKeys("wooden spoon");
+        searchBox.submit();
+        return driver.getCurrentUrl().contains("q=");
+    }
+
+    @TearDown(Level.Trial)
+    public void reportFootprint() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        long heapMb = (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024);
+        System.out.println(browser + " footprint: JVM heap " + heapMb + " MB, browser processes "
+                + Math.max(0, ProcessReaper.childProcessesMb()) + " MB");
+        Driver.closeDriver();
+    }
+}
@@ -0,0 +1,116 @@
+package cydeo.benchmarks;
+
+import cydeo.utilities.CommandTimingDecorator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openqa.selenium.By;
+import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Cost of the per-command instrumentation: the same command on a stub session that answers without doing
+ * anything, directly and through CommandTimingDecorator (proxy dispatch, reflective call, histogram update).
+ * The difference is the overhead every WebDriver command of the suite pays.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class CommandTimingBenchmark {
+
+    private WebDriver stub;
+    private WebDriver decorated;
+
+    @Setup
+    public void decorate() {
+        stub = new StubDriver();
+        decorated = new CommandTimingDecorator().decorate(stub);
+    }
+
+    @Benchmark
+    public String direct() {
+        return stub.getTitle();
+    }
+
+    @Benchmark
+    public String decorated() {
+        return decorated.getTitle();
+    }
+
+    private static class StubDriver implements WebDriver {
+        @Override
+        public void get(String url) {}
+
+        @Override
+        public String getCurrentUrl() {
+            return "about:blank";
+        }
+
+        @Override
+        public String getTitle() {
+            return "stub";
+        }
+
+        @Override
+        public List<WebElement> findElements(By by) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public WebElement findElement(By by) {
+            throw new NoSuchElementException("Stub session has no elements");
+        }
+
+        @Override
+        public String getPageSource() {
+            return "";
+        }
+
+        @Override
+        public void close() {}
+
+        @Override
+        public void quit() {}
+
+        @Override
+        public Set<String> getWindowHandles() {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public String getWindowHandle() {
+            return "stub";
+        }
+
+        @Override
+        public TargetLocator switchTo() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Navigation navigate() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Options manage() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package cydeo.benchmarks;
+
+import cydeo.utilities.Driver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openqa.selenium.WebDriver;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Cost of getting a session for a scenario and giving it back:
+ * cold = a new browser every time (pool disabled), warm = lease and reset of a pooled session.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 10)
+@Measurement(iterations = 3, time = 10)
+public class DriverBenchmark {
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Dpool.enabled=false")
+    public WebDriver coldGetDriver() {
+        return leaseAndRelease();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Dpool.enabled=true")
+    public WebDriver warmGetDriver() {
+        return leaseAndRelease();
+    }
+
+    private static WebDriver leaseAndRelease() {
+        WebDriver driver = Driver.getDriver();
+        driver.get(FixtureBenchmark.fixtureUrl());
+        Driver.closeDriver();
+        return driver;
+    }
+}
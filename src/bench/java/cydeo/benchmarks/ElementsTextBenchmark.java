@@ -0,0 +1,59 @@
+package cydeo.benchmarks;
+
+import cydeo.utilities.BrowserUtils;
+import cydeo.utilities.Driver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openqa.selenium.By;
+import org.openqa.selenium.JavascriptExecutor;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * BrowserUtils.getElementsText on result lists of growing size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class ElementsTextBenchmark extends FixtureBenchmark {
+
+    private static final By RESULTS = By.cssSelector("#results li");
+
+    @Param({"10", "100", "500"})
+    public int size;
+
+    @Setup(Level.Trial)
+    public void fillResults() {
+        ((JavascriptExecutor) Driver.getDriver()).executeScript(
+                "var list = document.getElementById('results');" +
+                "for (var i = 0; i < arguments[0]; i++) {" +
+                "  var item = document.createElement('li');" +
+                "  item.textContent = 'Wooden spoon #' + i;" +
+                "  list.appendChild(item);" +
+                "}", size);
+    }
+
+    @Benchmark
+    public List<String> getElementsTextByLocator() {
+        return BrowserUtils.getElementsText(RESULTS);
+    }
+
+    @Benchmark
+    public List<String> getElementsTextOfList() {
+        return BrowserUtils.getElementsText(Driver.getDriver().findElements(RESULTS));
+    }
+}
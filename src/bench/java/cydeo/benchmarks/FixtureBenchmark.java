@@ -0,0 +1,33 @@
+package cydeo.benchmarks;
+
+import cydeo.utilities.Driver;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.net.URL;
+
+/*
+ * Opens the local Etsy-like fixture page once per trial in a session leased from Driver,
+ * so benchmarks measure the framework and the browser, not the network.
+ */
+public abstract class FixtureBenchmark {
+
+    public static String fixtureUrl() {
+        URL fixture = FixtureBenchmark.class.getClassLoader().getResource("fixtures/etsy.html");
+        if (fixture == null) {
+            throw new IllegalStateException("fixtures/etsy.html is not on the classpath, run with -Pbenchmark");
+        }
+        return fixture.toString();
+    }
+
+    @Setup(Level.Trial)
+    public void openFixture() {
+        Driver.getDriver().get(fixtureUrl());
+    }
+
+    @TearDown(Level.Trial)
+    public void closeFixture() {
+        Driver.closeDriver();
+    }
+}
@@ -0,0 +1,107 @@
+package cydeo.benchmarks;
+
+import cydeo.utilities.GridHttpClientFactory;
+import cydeo.utilities.HubRouter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.chrome.ChromeOptions;
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+import java.net.MalformedURLException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Remote sessions (new session, five commands, quit) against a local WebDriver-protocol stub hub, through
+ * HubRouter with the shared clients of GridHttpClientFactory or with Selenium's default client per session.
+ * Each iteration runs three sessions; the trial ends by printing how many connections they opened.
+ *
+ * The shared trial first checks that a session request that timed out is not sent again: the stub answers
+ * after the session timeout, and it must have received exactly one request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 1, batchSize = 3)
+@Measurement(iterations = 3, batchSize = 3)
+public class GridConnectionBenchmark {
+
+    private static final int COMMANDS = 5;
+
+    @Param({"shared", "perSession"})
+    public String clients;
+
+    private WebDriverStubServer hub;
+    private HubRouter router;
+    private int sessions;
+
+    @Setup(Level.Trial)
+    public void startHub() {
+        hub = new WebDriverStubServer();
+        if (clients.equals("shared")) {
+            checkTimedOutRequestIsNotResent();
+            router = new HubRouter(Collections.singletonList(hub.uri()), Duration.ofSeconds(2), Duration.ofSeconds(60), 2,
+                    new GridHttpClientFactory(Duration.ofSeconds(2), Duration.ofSeconds(10), Duration.ofSeconds(10), 8));
+        }
+        hub.resetCounts();
+    }
+
+    @Benchmark
+    public String session() throws MalformedURLException {
+        WebDriver driver = clients.equals("shared")
+                ? router.createSession(new ChromeOptions())
+                : new RemoteWebDriver(hub.uri().resolve("/wd/hub").toURL(), new ChromeOptions());
+        String title = null;
+        for (int i = 0; i < COMMANDS; i++) {
+            title = driver.getTitle();
+        }
+        driver.quit();
+        sessions++;
+        return title;
+    }
+
+    @TearDown(Level.Trial)
+    public void reportConnections() {
+        System.out.println(clients + " clients: " + hub.connections() + " connections for " + sessions
+                + " sessions of " + COMMANDS + " commands");
+        if (router != null) {
+            router.close();
+        }
+        hub.stop();
+    }
+
+    private void checkTimedOutRequestIsNotResent() {
+        HubRouter impatient = new HubRouter(Collections.singletonList(hub.uri()), Duration.ofSeconds(2), Duration.ZERO, 2,
+                new GridHttpClientFactory(Duration.ofSeconds(2), Duration.ofSeconds(10), Duration.ofSeconds(1), 8));
+        hub.delaySessions(2000);
+        try {
+            impatient.createSession(new ChromeOptions()).quit();
+            throw new IllegalStateException("The stub hub answered before the session timeout");
+        } catch (RuntimeException e) {
+            if (e instanceof IllegalStateException) {
+                throw e;
+            }
+        } finally {
+            hub.delaySessions(0);
+            impatient.close();
+        }
+        if (hub.sessionRequests() != 1) {
+            throw new IllegalStateException("A timed out session request was sent " + hub.sessionRequests() + " times");
+        }
+        System.out.println("Timed out session request was sent once");
+    }
+}
@@ -0,0 +1,70 @@
+package cydeo.benchmarks;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Local HTTP server for a page with heavy assets: 30 images of 200 KB, two web fonts and an analytics
+ * script served from 127.0.0.1, which is a different host (third party) for a page opened on localhost.
+ * It counts the bytes it sent, so runs with and without request blocking can be compared.
+ */
+public class HeavyPageServer {
+
+    private static final int IMAGES = 30;
+    private static final int IMAGE_BYTES = 200 * 1024;
+    private static final int FONT_BYTES = 100 * 1024;
+
+    private static HttpServer server;
+    private static final AtomicLong bytesServed = new AtomicLong();
+
+    public static synchronized String start() {
+        if (server == null) {
+            try {
+                server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            server.createContext("/heavy.html", exchange -> send(exchange, "text/html", page().getBytes(StandardCharsets.UTF_8)));
+            server.createContext("/img/", exchange -> send(exchange, "image/png", new byte[IMAGE_BYTES]));
+            server.createContext("/font/", exchange -> send(exchange, "font/woff2", new byte[FONT_BYTES]));
+            server.createContext("/analytics.js", exchange -> send(exchange, "text/javascript",
+                    "window.tracked = true;".getBytes(StandardCharsets.UTF_8)));
+            server.start();
+        }
+        return "http://localhost:" + server.getAddress().getPort() + "/heavy.html";
+    }
+
+    public static long bytesServed() {
+        return bytesServed.get();
+    }
+
+    private static String page() {
+        int port = server.getAddress().getPort();
+        StringBuilder html = new StringBuilder("<!DOCTYPE html><html><head><title>Heavy page</title><style>")
+                .append("@font-face { font-family: a; src: url(/font/a.woff2); }")
+                .append("@font-face { font-family: b; src: url(/font/b.woff2); }")
+                .append("body { font-family: a, b, sans-serif; }</style>")
+                .append("<script async src=\"http://127.0.0.1:").append(port).append("/analytics.js\"></script>")
+                .append("</head><body><h1 id=\"title\">Heavy page</h1>");
+        for (int i = 0; i < IMAGES; i++) {
+            html.append("<img width=\"100\" height=\"100\" src=\"/img/").append(i).append(".png\">");
+        }
+        return html.append("</body></html>").toString();
+    }
+
+    private static void send(com.sun.net.httpserver.HttpExchange exchange, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.getResponseHeaders().set("Cache-Control", "no-store");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+        bytesServed.addAndGet(body.length);
+    }
+}
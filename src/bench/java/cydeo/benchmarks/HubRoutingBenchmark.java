@@ -0,0 +1,132 @@
+package cydeo.benchmarks;
+
+import cydeo.utilities.GridHttpClientFactory;
+import cydeo.utilities.HubRouter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.chrome.ChromeOptions;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Routing a new session across three local hubs: a down hub (nothing listening), a saturated stub hub (no free
+ * slot) and a free stub hub, with /status polled for every session (statusTtl=0) or cached (statusTtl=2000).
+ *
+ * The trial first checks the routing on canned /status payloads: the free hub ranks first, the saturated one
+ * second and the down one last, and sessions land on the free hub. Then a hub reporting the most free slots but
+ * refusing sessions: the session fails over to the next hub, the refused request is not retried, and the
+ * refusing hub ranks last for its cool-down.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 1, time = 5)
+@Measurement(iterations = 3, time = 5)
+public class HubRoutingBenchmark {
+
+    @Param({"0", "2000"})
+    public int statusTtl;
+
+    private WebDriverStubServer saturated;
+    private WebDriverStubServer free;
+    private URI down;
+    private HubRouter router;
+
+    @Setup(Level.Trial)
+    public void startHubs() {
+        saturated = new WebDriverStubServer(0);
+        free = new WebDriverStubServer(2);
+        down = URI.create("http://127.0.0.1:" + closedPort());
+        checkRankingAndFailover();
+        router = router(Arrays.asList(down, saturated.uri(), free.uri()), Duration.ofMillis(statusTtl));
+    }
+
+    @Benchmark
+    public String session() {
+        WebDriver driver = router.createSession(new ChromeOptions());
+        String title = driver.getTitle();
+        driver.quit();
+        return title;
+    }
+
+    @TearDown(Level.Trial)
+    public void stopHubs() {
+        System.out.println("Sessions on the saturated hub: " + saturated.sessionRequests() + ", on the free hub: "
+                + free.sessionRequests());
+        router.close();
+        saturated.stop();
+        free.stop();
+    }
+
+    private void checkRankingAndFailover() {
+        HubRouter ranking = router(Arrays.asList(down, saturated.uri(), free.uri()), Duration.ZERO);
+        try {
+            expect("ranking", Arrays.asList(free.uri(), saturated.uri(), down), ranking.rankHubs("chrome"));
+            ranking.createSession(new ChromeOptions()).quit();
+            if (free.sessionRequests() != 1 || saturated.sessionRequests() != 0) {
+                throw new IllegalStateException("The session did not go to the free hub");
+            }
+        } finally {
+            ranking.close();
+        }
+
+        WebDriverStubServer refusing = new WebDriverStubServer(3);
+        refusing.failSessions(true);
+        HubRouter failover = router(Arrays.asList(refusing.uri(), free.uri()), Duration.ZERO);
+        try {
+            expect("ranking before failover", Arrays.asList(refusing.uri(), free.uri()), failover.rankHubs("chrome"));
+            failover.createSession(new ChromeOptions()).quit();
+            if (refusing.sessionRequests() != 1 || free.sessionRequests() != 2) {
+                throw new IllegalStateException("Expected one refused request and a failover to the free hub, got "
+                        + refusing.sessionRequests() + " refused and " + (free.sessionRequests() - 1) + " on the free hub");
+            }
+            expect("ranking during cool-down", Arrays.asList(free.uri(), refusing.uri()), failover.rankHubs("chrome"));
+        } finally {
+            failover.close();
+            refusing.stop();
+        }
+        saturated.resetCounts();
+        free.resetCounts();
+        System.out.println("Hubs ranked by free slots, down hub last, failover and cool-down checked");
+    }
+
+    private static HubRouter router(List<URI> hubs, Duration statusTtl) {
+        return new HubRouter(hubs, Duration.ofSeconds(2), statusTtl, 2,
+                new GridHttpClientFactory(Duration.ofSeconds(2), Duration.ofSeconds(10), Duration.ofSeconds(10), 8));
+    }
+
+    private static void expect(String what, List<URI> expected, List<URI> actual) {
+        if (!expected.equals(actual)) {
+            throw new IllegalStateException("Unexpected " + what + ": " + actual + ", expected " + expected);
+        }
+    }
+
+    // a port nothing listens on, for the down hub
+    private static int closedPort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package cydeo.benchmarks;
+
+import cydeo.utilities.Driver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openqa.selenium.By;
+import org.openqa.selenium.WebElement;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * The XPath locators used by EtsyPage against their CSS and ID equivalents.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class LocatorBenchmark extends FixtureBenchmark {
+
+    private static final By SEARCH_BY_XPATH = By.xpath("//input[@id='global-enhancements-search-query']");
+    private static final By SEARCH_BY_CSS = By.cssSelector("#global-enhancements-search-query");
+    private static final By SEARCH_BY_ID = By.id("global-enhancements-search-query");
+
+    private static final By ACCEPT_BY_XPATH = By.xpath("//button[normalize-space()='Accept']");
+    private static final By ACCEPT_BY_CSS = By.cssSelector("#gdpr-banner button");
+
+    @Benchmark
+    public WebElement searchBoxByXpath() {
+        return Driver.getDriver().findElement(SEARCH_BY_XPATH);
+    }
+
+    @Benchmark
+    public WebElement searchBoxByCss() {
+        return Driver.getDriver().findElement(SEARCH_BY_CSS);
+    }
+
+    @Benchmark
+    public WebElement searchBoxById() {
+        return Driver.getDriver().findElement(SEARCH_BY_ID);
+    }
+
+    @Benchmark
+    public WebElement acceptByXpathText() {
+        return Driver.getDriver().findElement(ACCEPT_BY_XPATH);
+    }
+
+    @Benchmark
+    public WebElement acceptByCss() {
+        return Driver.getDriver().findElement(ACCEPT_BY_CSS);
+    }
+}
@@ -0,0 +1,37 @@
+package cydeo.benchmarks;
+
+import cydeo.pages.EtsyPage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * PageFactory.initElements on EtsyPage (proxy creation only), and a first use of a field,
+ * which is when the proxy actually looks the element up.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class PageFactoryBenchmark extends FixtureBenchmark {
+
+    @Benchmark
+    public EtsyPage initElements() {
+        return new EtsyPage();
+    }
+
+    @Benchmark
+    public boolean initElementsAndUseField() {
+        return new EtsyPage().searchBox.isEnabled();
+    }
+}
@@ -0,0 +1,61 @@
+package cydeo.benchmarks;
+
+import cydeo.utilities.Driver;
+import cydeo.utilities.PageReadiness;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Load time of a page with heavy assets (HeavyPageServer) with and without the request blocking profile.
+ * The blocking fork blocks images and fonts, and treats 127.0.0.1 as a third-party domain.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 10)
+@Measurement(iterations = 3, time = 10)
+public class RequestBlockingBenchmark {
+
+    private String url;
+
+    @Setup(Level.Trial)
+    public void startServer() {
+        url = HeavyPageServer.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void closeSession() {
+        System.out.println("Bytes served: " + HeavyPageServer.bytesServed());
+        Driver.closeDriver();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Dblock.enabled=false")
+    public void loadWithoutBlocking() {
+        load();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {"-Dblock.enabled=true", "-Dblock.urlPatterns=", "-Dblock.resourceTypes=Image,Font",
+            "-Dblock.domains=127.0.0.1"})
+    public void loadWithBlocking() {
+        load();
+    }
+
+    private void load() {
+        Driver.getDriver().get(url);
+        PageReadiness.waitForReady(Driver.getDriver(), PageReadiness.DEFAULT_TIMEOUT);
+    }
+}
@@ -0,0 +1,138 @@
+package cydeo.benchmarks;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Local hub speaking just enough of the WebDriver protocol for HubRouter and RemoteWebDriver: /status with
+ * free chrome slots, new session, title and quit. No browser behind it, so what is measured is the HTTP side.
+ *
+ * It counts the TCP connections the sessions opened (distinct client ports on /wd/hub, /status is polled by
+ * a client of its own) and the new session requests it received. New session answers can be delayed, to
+ * play a hub whose queue is full, or refused with a 500. /status reports the given number of free chrome
+ * slots next to a busy one, 0 playing a saturated hub.
+ */
+public class WebDriverStubServer {
+
+    private final HttpServer server;
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger sessionRequests = new AtomicInteger();
+    private final AtomicInteger sessionIds = new AtomicInteger();
+    private volatile long sessionDelayMs;
+    private volatile boolean failSessions;
+    private final int freeSlots;
+
+    public WebDriverStubServer() {
+        this(2);
+    }
+
+    public WebDriverStubServer(int freeSlots) {
+        this.freeSlots = freeSlots;
+        try {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        server.createContext("/status", exchange -> send(exchange, status()));
+        server.createContext("/wd/hub/session", this::session);
+        server.setExecutor(Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "webdriver-stub");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+    }
+
+    public URI uri() {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort());
+    }
+
+    public void delaySessions(long millis) {
+        sessionDelayMs = millis;
+    }
+
+    public void failSessions(boolean fail) {
+        failSessions = fail;
+    }
+
+    public int connections() {
+        return clientPorts.size();
+    }
+
+    public int sessionRequests() {
+        return sessionRequests.get();
+    }
+
+    public void resetCounts() {
+        clientPorts.clear();
+        sessionRequests.set(0);
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    private void session(HttpExchange exchange) throws IOException {
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        exchange.getRequestBody().readAllBytes();
+        String path = exchange.getRequestURI().getPath().replaceAll("/+$", "");
+        String method = exchange.getRequestMethod();
+
+        if (method.equals("POST") && path.equals("/wd/hub/session")) {
+            sessionRequests.incrementAndGet();
+            if (sessionDelayMs > 0) {
+                try {
+                    Thread.sleep(sessionDelayMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (failSessions) {
+                send(exchange, 500, "{\"value\": {\"error\": \"session not created\", \"message\": \"Stub hub refuses sessions\","
+                        + " \"stacktrace\": \"\"}}");
+                return;
+            }
+            send(exchange, "{\"value\": {\"sessionId\": \"stub-" + sessionIds.incrementAndGet()
+                    + "\", \"capabilities\": {\"browserName\": \"chrome\"}}}");
+        } else if (method.equals("GET") && path.endsWith("/title")) {
+            send(exchange, "{\"value\": \"Stub page\"}");
+        } else if (method.equals("GET") && path.endsWith("/url")) {
+            send(exchange, "{\"value\": \"about:blank\"}");
+        } else {
+            // quit and anything else
+            send(exchange, "{\"value\": null}");
+        }
+    }
+
+    private String status() {
+        StringBuilder slots = new StringBuilder("{\"stereotype\": {\"browserName\": \"chrome\"}, \"session\": {\"sessionId\": \"busy\"}}");
+        for (int i = 0; i < freeSlots; i++) {
+            slots.append(", {\"stereotype\": {\"browserName\": \"chrome\"}, \"session\": null}");
+        }
+        return "{\"value\": {\"ready\": true, \"nodes\": [{\"availability\": \"UP\", \"slots\": [" + slots + "]}]}}";
+    }
+
+    private static void send(HttpExchange exchange, String json) throws IOException {
+        send(exchange, 200, json);
+    }
+
+    private static void send(HttpExchange exchange, int code, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(code, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package cydeo.pages;
 
+import cydeo.utilities.CachingFieldDecorator;
 import cydeo.utilities.Driver;
 import org.openqa.selenium.WebElement;
 import org.openqa.selenium.support.FindBy;
@@ -9,7 +10,9 @@ public class EtsyPage {
 
 
     public EtsyPage(){
-        PageFactory.initElements(Driver.getDriver(), this);
+        // elements are cached per page load instead of being looked up on every use;
+        // the scenario's browser is only acquired when an element is first used
+        PageFactory.initElements(new CachingFieldDecorator(Driver::getDriver), this);
     }
 
 
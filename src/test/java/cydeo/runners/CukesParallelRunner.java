@@ -0,0 +1,23 @@
+package cydeo.runners;
+
+import org.junit.platform.suite.api.ConfigurationParameter;
+import org.junit.platform.suite.api.IncludeEngines;
+import org.junit.platform.suite.api.SelectDirectories;
+import org.junit.platform.suite.api.Suite;
+
+import static cydeo.runners.RunnerOptions.*;
+import static io.cucumber.junit.platform.engine.Constants.*;
+
+/*
+ * Runs scenarios concurrently on the JUnit Platform Cucumber engine. Enabled with: mvn test -Pparallel
+ * The worker pool size comes from the surefire configuration parameters in pom.xml
+ * (one worker per core by default, or -Dparallel.strategy=fixed -Dparallel.workers=N for grid slots).
+ */
+@Suite
+@IncludeEngines("cucumber")
+@SelectDirectories(FEATURES)
+@ConfigurationParameter(key = GLUE_PROPERTY_NAME, value = GLUE)
+@ConfigurationParameter(key = PLUGIN_PROPERTY_NAME, value = PLUGINS)
+@ConfigurationParameter(key = PLUGIN_PUBLISH_ENABLED_PROPERTY_NAME, value = "true")
+@ConfigurationParameter(key = PARALLEL_EXECUTION_ENABLED_PROPERTY_NAME, value = "true")
+public class CukesParallelRunner { }
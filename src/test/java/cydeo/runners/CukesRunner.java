@@ -2,18 +2,20 @@ package cydeo.runners;
 
 import io.cucumber.junit.Cucumber;
 import io.cucumber.junit.CucumberOptions;
-import org.joda.time.field.BaseDurationField;
 import org.junit.runner.RunWith;
 
+import static cydeo.runners.RunnerOptions.*;
+
 @RunWith(Cucumber.class)
 @CucumberOptions(
         plugin = {
-                "json:target/cucumber.json",
-                "html:target/cucumber-reports.html",
-                "me.jvt.cucumber.report.PrettyReports:target/cucumber",
+                STREAM_REPORT,
+                PRELAUNCH,
+                TIMING_REPORT,
+                HISTORY,
                 },
-        features = "src/test/resources/features",
-        glue = "cydeo/steps",
+        features = FEATURES,
+        glue = GLUE,
         publish = true
 )
 public class CukesRunner { }
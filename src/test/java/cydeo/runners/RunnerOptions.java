@@ -0,0 +1,24 @@
+package cydeo.runners;
+
+/*
+ * Settings shared by CukesRunner (serial, JUnit 4) and CukesParallelRunner (parallel, JUnit Platform)
+ * so both runners always execute the same features with the same glue and reports.
+ */
+public final class RunnerOptions {
+
+    private RunnerOptions() {}
+
+    public static final String FEATURES = "src/test/resources/features";
+
+    public static final String GLUE = "cydeo.steps";
+
+    // one NDJSON line per scenario, rendered to target/cucumber.json and target/cucumber-reports.html at the end
+    public static final String STREAM_REPORT = "cydeo.utilities.StreamingReporter:target/cucumber.ndjson";
+    public static final String TIMING_REPORT = "cydeo.utilities.TimingPlugin";
+    public static final String PRELAUNCH = "cydeo.utilities.PrelaunchPlugin";
+    // durations and failures per scenario, for the scheduler of the next run
+    public static final String HISTORY = "cydeo.utilities.HistoryPlugin";
+
+    // cucumber.plugin format used by the JUnit Platform engine
+    public static final String PLUGINS = STREAM_REPORT + "," + PRELAUNCH + "," + TIMING_REPORT + "," + HISTORY;
+}
@@ -0,0 +1,228 @@
+package cydeo.runners;
+
+import cydeo.utilities.ConfigurationReader;
+import cydeo.utilities.ScenarioHistory;
+import org.junit.platform.engine.FilterResult;
+import org.junit.platform.engine.TestDescriptor;
+import org.junit.platform.engine.TestSource;
+import org.junit.platform.engine.TestTag;
+import org.junit.platform.engine.UniqueId;
+import org.junit.platform.engine.support.descriptor.ClasspathResourceSource;
+import org.junit.platform.engine.support.descriptor.FilePosition;
+import org.junit.platform.engine.support.descriptor.FileSource;
+import org.junit.platform.launcher.PostDiscoveryFilter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/*
+ * Orders the scenarios of parallel runs (CukesParallelRunner) so that the suite ends as early as possible,
+ * using the durations and failure rates of earlier runs from the scenario history (see HistoryPlugin).
+ *
+ * Scenarios run by tag priority first (schedule.tagPriority, e.g. all @smoke before all @regression, the rest
+ * last), then longest first: cost is the average duration weighted up by the failure rate
+ * (seconds * (1 + schedule.failureWeight * failureRate)), scenarios without history cost schedule.defaultSeconds.
+ * Giving the longest scenarios to the workers first leaves the short ones to fill the gaps at the end,
+ * instead of one long scenario keeping the run going while every other worker is idle.
+ *
+ * Cucumber has no ordering hook of its own for the JUnit Platform, so this is a post-discovery filter
+ * (registered in META-INF/services) that keeps every test and only reorders the children of the Cucumber
+ * engine's features and rules. A feature runs at the rank of its best scenario. Disabled with schedule.enabled=false.
+ */
+public class ScenarioScheduler implements PostDiscoveryFilter {
+
+    private final boolean enabled = ConfigurationReader.getBooleanProperty("schedule.enabled", true);
+    private final List<String> tagPriority = Arrays.stream(ConfigurationReader.getProperty("schedule.tagPriority", "@smoke,@regression").split(","))
+            .map(tag -> tag.trim().replaceFirst("^@", ""))
+            .filter(tag -> !tag.isEmpty())
+            .collect(Collectors.toList());
+    private final double defaultSeconds = Double.parseDouble(ConfigurationReader.getProperty("schedule.defaultSeconds", "30"));
+    private final double failureWeight = Double.parseDouble(ConfigurationReader.getProperty("schedule.failureWeight", "1.0"));
+
+    @Override
+    public FilterResult apply(TestDescriptor descriptor) {
+        if (enabled && isCucumberEngine(descriptor)) {
+            schedule(descriptor);
+        }
+        return FilterResult.included("scheduled");
+    }
+
+    private static boolean isCucumberEngine(TestDescriptor descriptor) {
+        UniqueId.Segment last = descriptor.getUniqueId().getLastSegment();
+        return last.getType().equals("engine") && last.getValue().equals("cucumber");
+    }
+
+    private void schedule(TestDescriptor engine) {
+        ScenarioHistory history = ScenarioHistory.load(ScenarioHistory.defaultFile());
+        Map<TestDescriptor, Rank> ranks = new HashMap<>();
+        rank(engine, history, ranks);
+        int workers = workers();
+        reorder(engine, ranks, workers);
+
+        List<Rank> scenarios = ranks.entrySet().stream()
+                .filter(e -> e.getKey().getChildren().isEmpty())
+                .map(Map.Entry::getValue)
+                .sorted()
+                .collect(Collectors.toList());
+        if (!scenarios.isEmpty()) {
+            long known = scenarios.stream().filter(rank -> rank.known).count();
+            System.out.printf("Scheduled %d scenarios (%d with history), expected ~%.0fs on %d workers, first: %s%n",
+                    scenarios.size(), known, makespan(scenarios, workers), workers, scenarios.get(0).scenario);
+        }
+    }
+
+    /*
+     * Ranks the scenarios (leaves) from the history, and every container at its best descendant.
+     */
+    private Rank rank(TestDescriptor descriptor, ScenarioHistory history, Map<TestDescriptor, Rank> ranks) {
+        Rank rank = null;
+        if (descriptor.getChildren().isEmpty()) {
+            Optional<String> scenario = scenarioKey(descriptor.getSource());
+            if (scenario.isPresent()) {
+                ScenarioHistory.Entry entry = history.get(scenario.get());
+                rank = new Rank(scenario.get(), tier(descriptor.getTags()),
+                        entry == null ? defaultSeconds : entry.getSeconds(),
+                        entry == null ? defaultSeconds : entry.getSeconds() * (1 + failureWeight * entry.getFailureRate()),
+                        entry != null);
+            }
+        } else {
+            for (TestDescriptor child : descriptor.getChildren()) {
+                Rank childRank = rank(child, history, ranks);
+                if (childRank != null && (rank == null || childRank.compareTo(rank) < 0)) {
+                    rank = childRank;
+                }
+            }
+        }
+        if (rank != null) {
+            ranks.put(descriptor, rank);
+        }
+        return rank;
+    }
+
+    /*
+     * Re-adds the children of every container in schedule order; children without a rank keep their place at the end.
+     */
+    private static void reorder(TestDescriptor container, Map<TestDescriptor, Rank> ranks, int workers) {
+        List<TestDescriptor> children = new ArrayList<>(container.getChildren());
+        if (children.size() > 1) {
+            List<TestDescriptor> ranked = children.stream().filter(ranks::containsKey)
+                    .sorted(Comparator.comparing(ranks::get))
+                    .collect(Collectors.toList());
+            List<TestDescriptor> ordered = forkOrder(ranked, workers);
+            children.stream().filter(child -> !ranks.containsKey(child)).forEach(ordered::add);
+            children.forEach(container::removeChild);
+            ordered.forEach(container::addChild);
+        }
+        // the children of a feature are forked by the worker running it, which is usually alone to take them
+        children.forEach(child -> reorder(child, ranks, 1));
+    }
+
+    /*
+     * The JUnit Platform forks a container's children in list order; the worker that forked them then runs
+     * them from the end of the list, while idle workers take them from the start. So the best ranked children
+     * are dealt to both ends, in proportion to the workers taking from each, and meet in the middle
+     * (with a single worker the list is just reversed).
+     */
+    static <T> List<T> forkOrder(List<T> bestFirst, int workers) {
+        List<T> front = new ArrayList<>();
+        List<T> back = new ArrayList<>();
+        double frontShare = (workers - 1) / (double) workers;
+        for (T child : bestFirst) {
+            if (front.size() < frontShare * (front.size() + back.size() + 1)) {
+                front.add(child);
+            } else {
+                back.add(child);
+            }
+        }
+        Collections.reverse(back);
+        front.addAll(back);
+        return front;
+    }
+
+    private int tier(Set<TestTag> tags) {
+        for (int i = 0; i < tagPriority.size(); i++) {
+            if (tags.contains(TestTag.create(tagPriority.get(i)))) {
+                return i;
+            }
+        }
+        return tagPriority.size();
+    }
+
+    private static Optional<String> scenarioKey(Optional<TestSource> source) {
+        if (source.isPresent() && source.get() instanceof FileSource) {
+            FileSource file = (FileSource) source.get();
+            return file.getPosition().map(position -> ScenarioHistory.key(file.getUri(), position.getLine()));
+        }
+        if (source.isPresent() && source.get() instanceof ClasspathResourceSource) {
+            ClasspathResourceSource resource = (ClasspathResourceSource) source.get();
+            return resource.getPosition().map(FilePosition::getLine)
+                    .map(line -> ScenarioHistory.toPath("classpath:" + resource.getClasspathResourceName()) + ":" + line);
+        }
+        return Optional.empty();
+    }
+
+    /*
+     * Parallel workers as configured for the Cucumber engine: parallel.workers with the fixed strategy,
+     * otherwise cores * parallel.factor.
+     */
+    private static int workers() {
+        if ("fixed".equals(ConfigurationReader.getProperty("parallel.strategy", "dynamic"))) {
+            return ConfigurationReader.getIntProperty("parallel.workers", Runtime.getRuntime().availableProcessors());
+        }
+        double factor = Double.parseDouble(ConfigurationReader.getProperty("parallel.factor", "1.0"));
+        return Math.max(1, (int) Math.ceil(Runtime.getRuntime().availableProcessors() * factor));
+    }
+
+    /*
+     * When the last worker finishes if every worker takes the next scenario of the schedule as soon as it is free.
+     */
+    private static double makespan(List<Rank> schedule, int workers) {
+        PriorityQueue<Double> freeAt = new PriorityQueue<>();
+        for (int i = 0; i < workers; i++) {
+            freeAt.add(0.0);
+        }
+        double end = 0;
+        for (Rank rank : schedule) {
+            double finish = freeAt.poll() + rank.seconds;
+            end = Math.max(end, finish);
+            freeAt.add(finish);
+        }
+        return end;
+    }
+
+    private static class Rank implements Comparable<Rank> {
+        private final String scenario;
+        private final int tier;
+        private final double seconds;
+        private final double cost;
+        private final boolean known;
+
+        Rank(String scenario, int tier, double seconds, double cost, boolean known) {
+            this.scenario = scenario;
+            this.tier = tier;
+            this.seconds = seconds;
+            this.cost = cost;
+            this.known = known;
+        }
+
+        @Override
+        public int compareTo(Rank other) {
+            if (tier != other.tier) {
+                return Integer.compare(tier, other.tier);
+            }
+            if (cost != other.cost) {
+                return Double.compare(other.cost, cost);
+            }
+            return scenario.compareTo(other.scenario);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package cydeo.runners;
+
+import cydeo.utilities.ConfigurationReader;
+import cydeo.utilities.ScenarioHistory;
+import org.openqa.selenium.json.Json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+ * Splits the scenarios into K shards of roughly equal run time, for -Dshard=i/K (see the shard profile).
+ *
+ * Scenario durations come from the cucumber.json reports listed in shard.history (files, or directories
+ * of *.json reports, averaged over all of them); scenarios without history count shard.defaultSeconds.
+ * Scenarios are bin-packed longest first onto the shard with the least time so far, so every agent
+ * computes the same plan. Shard i is written to target/shard.properties as a cucumber.features value.
+ */
+public class ShardPlanner {
+
+    private static final Path OUTPUT = Paths.get("target", "shard.properties");
+
+    public static void main(String[] args) throws IOException {
+        String shard = ConfigurationReader.getProperty("shard", "1/1");
+        String[] parts = shard.split("/");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("shard must look like <index>/<count>, e.g. 2/5: " + shard);
+        }
+        int index = Integer.parseInt(parts[0].trim());
+        int count = Integer.parseInt(parts[1].trim());
+        if (count < 1 || index < 1 || index > count) {
+            throw new IllegalArgumentException("shard index must be between 1 and the shard count: " + shard);
+        }
+
+        Map<String, Double> history = readHistory(ConfigurationReader.getProperty("shard.history", "shard-history,target/cucumber.json"));
+        double defaultSeconds = Double.parseDouble(ConfigurationReader.getProperty("shard.defaultSeconds", "30"));
+        List<String> scenarios = findScenarios(Paths.get(RunnerOptions.FEATURES));
+
+        List<List<String>> shards = plan(scenarios, history, defaultSeconds, count);
+        for (int i = 0; i < count; i++) {
+            double seconds = shards.get(i).stream().mapToDouble(s -> history.getOrDefault(s, defaultSeconds)).sum();
+            System.out.printf("Shard %d/%d: %d scenarios, ~%.1fs%s%n", i + 1, count, shards.get(i).size(), seconds,
+                    i + 1 == index ? " (this agent)" : "");
+        }
+
+        Properties properties = new Properties();
+        properties.setProperty("shard.features", toFeatures(shards.get(index - 1), scenarios));
+        Files.createDirectories(OUTPUT.getParent());
+        try (OutputStream out = Files.newOutputStream(OUTPUT)) {
+            properties.store(out, "Scenarios of shard " + shard);
+        }
+    }
+
+    /*
+     * Longest processing time first: each scenario, from the slowest down, goes to the shard with the least time.
+     */
+    static List<List<String>> plan(List<String> scenarios, Map<String, Double> history, double defaultSeconds, int count) {
+        List<List<String>> shards = new ArrayList<>();
+        double[] totals = new double[count];
+        PriorityQueue<Integer> lightest = new PriorityQueue<>(
+                Comparator.<Integer>comparingDouble(i -> totals[i]).thenComparingInt(i -> i));
+        for (int i = 0; i < count; i++) {
+            shards.add(new ArrayList<>());
+            lightest.add(i);
+        }
+
+        List<String> slowestFirst = new ArrayList<>(scenarios);
+        slowestFirst.sort(Comparator.<String>comparingDouble(s -> history.getOrDefault(s, defaultSeconds)).reversed()
+                .thenComparing(Comparator.naturalOrder()));
+        for (String scenario : slowestFirst) {
+            int shard = lightest.poll();
+            shards.get(shard).add(scenario);
+            totals[shard] += history.getOrDefault(scenario, defaultSeconds);
+            lightest.add(shard);
+        }
+        return shards;
+    }
+
+    /*
+     * "path:line:line,path:line" as accepted by cucumber.features. An empty shard selects a line
+     * no scenario starts on, so that it runs nothing instead of every feature.
+     */
+    private static String toFeatures(List<String> shard, List<String> allScenarios) {
+        if (shard.isEmpty()) {
+            return allScenarios.isEmpty() ? RunnerOptions.FEATURES : path(allScenarios.get(0)) + ":0";
+        }
+        Map<String, TreeSet<Integer>> linesPerFeature = new TreeMap<>();
+        for (String scenario : shard) {
+            linesPerFeature.computeIfAbsent(path(scenario), k -> new TreeSet<>()).add(line(scenario));
+        }
+        return linesPerFeature.entrySet().stream()
+                .map(e -> e.getKey() + ":" + e.getValue().stream().map(String::valueOf).collect(Collectors.joining(":")))
+                .collect(Collectors.joining(","));
+    }
+
+    /*
+     * Every runnable scenario as "path:line", including each example row of a Scenario Outline.
+     */
+    static List<String> findScenarios(Path featuresDirectory) throws IOException {
+        List<Path> features;
+        try (Stream<Path> files = Files.walk(featuresDirectory)) {
+            features = files.filter(p -> p.toString().endsWith(".feature")).sorted().collect(Collectors.toList());
+        }
+
+        List<String> scenarios = new ArrayList<>();
+        for (Path feature : features) {
+            String path = ScenarioHistory.normalize(feature);
+            boolean outline = false;
+            boolean inExamples = false;
+            boolean headerSeen = false;
+            List<String> lines = Files.readAllLines(feature, StandardCharsets.UTF_8);
+            for (int i = 0; i < lines.size(); i++) {
+                String line = lines.get(i).trim();
+                if (line.startsWith("Scenario Outline:") || line.startsWith("Scenario Template:")) {
+                    outline = true;
+                    inExamples = false;
+                } else if (line.startsWith("Scenario:") || line.startsWith("Example:")) {
+                    scenarios.add(path + ":" + (i + 1));
+                    outline = false;
+                    inExamples = false;
+                } else if (line.startsWith("Examples:") || line.startsWith("Scenarios:")) {
+                    inExamples = outline;
+                    headerSeen = false;
+                } else if (inExamples && line.startsWith("|")) {
+                    if (headerSeen) {
+                        scenarios.add(path + ":" + (i + 1));
+                    }
+                    headerSeen = true;
+                } else if (line.startsWith("Feature:") || line.startsWith("Rule:") || line.startsWith("Background:")) {
+                    outline = false;
+                    inExamples = false;
+                }
+            }
+        }
+        return scenarios;
+    }
+
+    /*
+     * Average duration in seconds per "path:line", including hooks and background steps.
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Double> readHistory(String locations) throws IOException {
+        List<Path> reports = new ArrayList<>();
+        for (String location : locations.split(",")) {
+            Path path = Paths.get(location.trim());
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.walk(path)) {
+                    files.filter(p -> p.toString().endsWith(".json")).sorted().forEach(reports::add);
+                }
+            } else if (Files.isRegularFile(path)) {
+                reports.add(path);
+            }
+        }
+
+        Map<String, double[]> sums = new HashMap<>();
+        for (Path report : reports) {
+            List<Object> features;
+            try {
+                features = new Json().toType(new String(Files.readAllBytes(report), StandardCharsets.UTF_8), List.class);
+            } catch (RuntimeException e) {
+                System.out.println("Skipping unreadable report " + report + ": " + e.getMessage());
+                continue;
+            }
+            if (features == null) {
+                continue;
+            }
+            for (Object featureObject : features) {
+                Map<String, Object> feature = (Map<String, Object>) featureObject;
+                String path = ScenarioHistory.toPath(String.valueOf(feature.get("uri")));
+                long background = 0;
+                for (Object elementObject : (List<Object>) feature.getOrDefault("elements", new ArrayList<>())) {
+                    Map<String, Object> element = (Map<String, Object>) elementObject;
+                    long nanos = nanos(element.get("before")) + nanos(element.get("steps")) + nanos(element.get("after"));
+                    if ("background".equals(element.get("type"))) {
+                        background = nanos;
+                        continue;
+                    }
+                    double[] sum = sums.computeIfAbsent(path + ":" + element.get("line"), k -> new double[2]);
+                    sum[0] += (background + nanos) / 1e9;
+                    sum[1]++;
+                    background = 0;
+                }
+            }
+        }
+        System.out.println("Scenario durations known for " + sums.size() + " scenarios from " + reports.size() + " reports");
+
+        Map<String, Double> averages = new HashMap<>();
+        sums.forEach((scenario, sum) -> averages.put(scenario, sum[0] / sum[1]));
+        return averages;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static long nanos(Object steps) {
+        long total = 0;
+        if (steps instanceof List) {
+            for (Object step : (List<Object>) steps) {
+                Object result = ((Map<String, Object>) step).get("result");
+                if (result instanceof Map && ((Map<String, Object>) result).get("duration") instanceof Number) {
+                    total += ((Number) ((Map<String, Object>) result).get("duration")).longValue();
+                }
+            }
+        }
+        return total;
+    }
+
+    private static String path(String scenario) {
+        return scenario.substring(0, scenario.lastIndexOf(':'));
+    }
+
+    private static int line(String scenario) {
+        return Integer.parseInt(scenario.substring(scenario.lastIndexOf(':') + 1));
+    }
+}
@@ -1,18 +1,31 @@
 package cydeo.steps;
 
-import cydeo.utilities.BrowserUtils;
+import cydeo.utilities.ArtifactPipeline;
 import cydeo.utilities.ConfigurationReader;
 import cydeo.utilities.Driver;
+import cydeo.utilities.PageLoadMetrics;
+import cydeo.utilities.ProcessReaper;
+import cydeo.utilities.RequestBlocker;
+import cydeo.utilities.ScenarioScope;
 import io.cucumber.java.After;
+import io.cucumber.java.AfterAll;
 import io.cucumber.java.Before;
 import io.cucumber.java.Scenario;
-import org.openqa.selenium.OutputType;
-import org.openqa.selenium.TakesScreenshot;
 
 
 public class Hooks {
 
-    @Before
+    @Before(order = 0)
+    public void bindScenario(Scenario scenario){
+        ScenarioScope.bind(scenario.getId());
+        // @browserless scenarios run on the in-JVM HTML engine, whatever BROWSER is
+        if (scenario.getSourceTagNames().contains("@browserless")) {
+            Driver.allowBrowserless();
+        }
+    }
+
+    // @api scenarios don't use the browser: none is acquired unless a step asks for it
+    @Before(value = "not @api", order = 1)
     public void setupMethod(){
         Driver.getDriver().get(ConfigurationReader.getProperty("etsyUrl"));
     }
@@ -21,17 +34,50 @@ public class Hooks {
     @After
     public void teardownMethod(Scenario scenario){
 
-        if (scenario.isFailed()) {
+        try {
+            // nothing to capture if the scenario never used a browser (or its session could not be created);
+            // closing and reaping are cheap no-ops then
+            boolean usedBrowser = Driver.hasDriver();
+
+            ArtifactPipeline.Capture artifacts = null;
+            if (scenario.isFailed() && usedBrowser) {
+                // only grabbing the artifacts needs the browser, writing them happens in the background
+                artifacts = ArtifactPipeline.capture(Driver.getDriver());
+            }
 
-            byte[] screenshot = ((TakesScreenshot) Driver.getDriver()).getScreenshotAs(OutputType.BYTES);
-            scenario.attach(screenshot, "image/png", scenario.getName());
+            if (usedBrowser) {
+                // the last page of the scenario, if no wait measured it yet
+                PageLoadMetrics.collect(Driver.getDriver());
+            }
 
+            if (RequestBlocker.isEnabled() && usedBrowser) {
+                scenario.log(RequestBlocker.takeStats(Driver.getDriver()).toString());
+            }
+
+            Driver.closeDriver();
+            ProcessReaper.reapOrphans();
+
+            if (artifacts != null) {
+                for (String path : ArtifactPipeline.write(artifacts, scenario.getName())) {
+                    scenario.attach(path, "text/uri-list", scenario.getName());
+                }
+            }
+        } finally {
+            ScenarioScope.unbind();
         }
 
+    }
 
-        BrowserUtils.sleep(2);
-        Driver.closeDriver();
+    // writes target/perf-report.json and warns about (or fails on, perf.gate=fail) page-load regressions
+    @AfterAll
+    public static void performanceGate(){
+        PageLoadMetrics.finishRun();
+    }
 
+    // run-wide resources: idle pooled sessions, browser-context hosts, the embedded grid and the hub router
+    @AfterAll
+    public static void shutdownDrivers(){
+        Driver.shutdownPool();
     }
 
 }
@@ -4,6 +4,8 @@ import static org.junit.Assert.fail;
 
 import cydeo.pages.EtsyPage;
 import cydeo.utilities.BrowserUtils;
+import cydeo.utilities.CompositeAction;
+import cydeo.utilities.ConfigurationReader;
 import cydeo.utilities.Driver;
 import io.cucumber.java.After;
 import io.cucumber.java.Scenario;
@@ -12,19 +14,24 @@ import io.cucumber.java.en.Then;
 import io.cucumber.java.en.When;
 import org.junit.Assert;
 import org.openqa.selenium.By;
-import org.openqa.selenium.Keys;
 import org.openqa.selenium.OutputType;
 import org.openqa.selenium.TakesScreenshot;
 import org.openqa.selenium.support.ui.ExpectedConditions;
 import org.openqa.selenium.support.ui.WebDriverWait;
 
+import java.net.URI;
 import java.time.Duration;
 import java.util.concurrent.TimeUnit;
 
 
 public class StepDefs {
 
-    EtsyPage etsy=new EtsyPage();
+    // created per scenario by PicoContainer; it only acquires the browser when one of its elements is used
+    private final EtsyPage etsy;
+
+    public StepDefs(EtsyPage etsy) {
+        this.etsy = etsy;
+    }
 
     @Given("^I am on the home page$")
     public void i_am_on_the_home_page() throws Throwable {
@@ -42,22 +49,36 @@ public class StepDefs {
 
     @When("^I search for \"([^\"]*)\"$")
     public void i_search_for(String search) throws Throwable {
-        etsy.searchBox.sendKeys(search + Keys.ENTER);
+        // typing, submitting and waiting for the results page in one round trip
+        CompositeAction.Result result = BrowserUtils.compose(etsy.searchBox)
+                .focus()
+                .setValue(search)
+                .submit()
+                .waitForUrlContains("search")
+                .perform();
+        Assert.assertTrue("Search for " + search + ": " + result, result.isCompleted());
     }
 
     @Then("^I should see the results$")
     public void i_should_see_the_results() throws Throwable {
 
-        BrowserUtils.sleep(2);
+        BrowserUtils.waitForPageReady("search", 2);
         Assert.assertTrue(Driver.getDriver().getCurrentUrl().contains("search"));
     }
 
     @Then("^I should see more results$")
     public void i_should_see_more_results() throws Throwable {
 
-        BrowserUtils.sleep(2);
+        BrowserUtils.waitForPageReady("search", 2);
         Assert.assertTrue(Driver.getDriver().getCurrentUrl().contains("search"));
     }
 
+    @Then("^the configured site is a valid web address$")
+    public void the_configured_site_is_a_valid_web_address() {
+        // no browser involved: checks configuration.properties only
+        URI site = URI.create(ConfigurationReader.getProperty("etsyUrl"));
+        Assert.assertTrue(site.getScheme().startsWith("http"));
+        Assert.assertNotNull(site.getHost());
+    }
 
 }
@@ -0,0 +1,180 @@
+package cydeo.utilities;
+
+import org.openqa.selenium.OutputType;
+import org.openqa.selenium.TakesScreenshot;
+import org.openqa.selenium.WebDriver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ * Captures failure artifacts (screenshot, page source) quickly and writes them to target/artifacts
+ * on a bounded background queue, so the browser session can be released right after capture.
+ *
+ * The screenshot is taken as the base64 string the driver already sends, decoding and disk writes
+ * happen on the writer threads and the page source is gzipped there. If the queued artifacts would
+ * exceed artifacts.maxQueuedMb, the caller writes its own artifacts instead of queueing more.
+ * Reports reference artifacts by path instead of embedding them.
+ */
+public class ArtifactPipeline {
+
+    private static final Path ARTIFACTS = Paths.get("target", "artifacts");
+    private static final long MAX_QUEUED_BYTES = ConfigurationReader.getIntProperty("artifacts.maxQueuedMb", 64) * 1024L * 1024L;
+
+    private static final AtomicLong queuedBytes = new AtomicLong();
+    private static final AtomicInteger sequence = new AtomicInteger();
+
+    private static final ThreadPoolExecutor writers = new ThreadPoolExecutor(
+            ConfigurationReader.getIntProperty("artifacts.writers", 2),
+            ConfigurationReader.getIntProperty("artifacts.writers", 2),
+            30, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(ConfigurationReader.getIntProperty("artifacts.queueSize", 100)),
+            task -> {
+                Thread thread = new Thread(task, "artifact-writer");
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(ArtifactPipeline::flush, "artifact-pipeline-flush"));
+    }
+
+    private ArtifactPipeline() {}
+
+    /*
+     * Grabs screenshot and page source from the session. Only this part needs the browser.
+     */
+    public static Capture capture(WebDriver driver) {
+        long start = System.nanoTime();
+        String screenshotBase64 = null;
+        String pageSource = null;
+        try {
+            // a browserless session renders nothing, and launching a real browser just for the screenshot
+            // would lose the page's state: only its page source is kept
+            if (!BrowserlessDriver.isBrowserless(driver)) {
+                screenshotBase64 = ((TakesScreenshot) driver).getScreenshotAs(OutputType.BASE64);
+            }
+        } catch (RuntimeException e) {
+            System.out.println("Could not take screenshot: " + e.getMessage());
+        }
+        try {
+            pageSource = driver.getPageSource();
+        } catch (RuntimeException e) {
+            System.out.println("Could not read page source: " + e.getMessage());
+        }
+        RunMetrics.recordNanos("artifacts.capture", System.nanoTime() - start);
+        return new Capture(screenshotBase64, pageSource);
+    }
+
+    /*
+     * Schedules the captured artifacts to be written and returns their paths right away,
+     * relative to target/ so that reports written there can link to them.
+     */
+    public static List<String> write(Capture capture, String name) {
+        String baseName = sequence.incrementAndGet() + "-" + name.replaceAll("[^A-Za-z0-9._-]+", "_");
+        List<String> paths = new ArrayList<>();
+
+        if (capture.screenshotBase64 != null) {
+            Path screenshot = ARTIFACTS.resolve(baseName + ".png");
+            submit(capture.screenshotBase64.length(), () -> writeScreenshot(screenshot, capture.screenshotBase64));
+            paths.add(relativeToTarget(screenshot));
+        }
+        if (capture.pageSource != null) {
+            Path source = ARTIFACTS.resolve(baseName + ".html.gz");
+            // Java strings hold up to two bytes per character
+            submit(capture.pageSource.length() * 2L, () -> writePageSource(source, capture.pageSource));
+            paths.add(relativeToTarget(source));
+        }
+        return paths;
+    }
+
+    /*
+     * Waits for queued artifacts to be written, used at JVM shutdown.
+     */
+    public static void flush() {
+        writers.shutdown();
+        try {
+            if (!writers.awaitTermination(30, TimeUnit.SECONDS)) {
+                System.out.println("Some failure artifacts could not be written before shutdown");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void submit(long bytes, Runnable write) {
+        if (queuedBytes.addAndGet(bytes) > MAX_QUEUED_BYTES || writers.isShutdown()) {
+            // over the memory cap: write on the calling thread instead of holding more on the heap
+            queuedBytes.addAndGet(-bytes);
+            RunMetrics.increment("artifacts.writtenInline");
+            write.run();
+            return;
+        }
+        RunMetrics.recordMax("artifacts.queuedBytes", queuedBytes.get());
+        writers.execute(() -> {
+            try {
+                write.run();
+            } finally {
+                queuedBytes.addAndGet(-bytes);
+            }
+        });
+    }
+
+    private static void writeScreenshot(Path path, String base64) {
+        long start = System.nanoTime();
+        try {
+            Files.createDirectories(path.getParent());
+            byte[] png = Base64.getMimeDecoder().decode(base64);
+            Files.write(path, png);
+            RunMetrics.add("artifacts.bytesWritten", png.length);
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Could not write screenshot " + path + ": " + e.getMessage());
+        }
+        RunMetrics.recordNanos("artifacts.write", System.nanoTime() - start);
+    }
+
+    private static void writePageSource(Path path, String pageSource) {
+        long start = System.nanoTime();
+        try {
+            Files.createDirectories(path.getParent());
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(path))) {
+                out.write(pageSource.getBytes(StandardCharsets.UTF_8));
+            }
+            RunMetrics.add("artifacts.bytesWritten", Files.size(path));
+        } catch (IOException e) {
+            System.out.println("Could not write page source " + path + ": " + e.getMessage());
+        }
+        RunMetrics.recordNanos("artifacts.write", System.nanoTime() - start);
+    }
+
+    private static String relativeToTarget(Path artifact) {
+        return Paths.get("target").relativize(artifact).toString().replace('\\', '/');
+    }
+
+    /*
+     * Artifacts grabbed from a session, not yet decoded or written.
+     */
+    public static class Capture {
+        private final String screenshotBase64;
+        private final String pageSource;
+
+        Capture(String screenshotBase64, String pageSource) {
+            this.screenshotBase64 = screenshotBase64;
+            this.pageSource = pageSource;
+        }
+    }
+}
@@ -0,0 +1,434 @@
+package cydeo.utilities;
+
+import org.openqa.selenium.HasCapabilities;
+import org.openqa.selenium.NoSuchWindowException;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.chrome.ChromeDriver;
+import org.openqa.selenium.chrome.ChromeDriverService;
+import org.openqa.selenium.chrome.ChromeOptions;
+import org.openqa.selenium.json.Json;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.WebSocket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/*
+ * Browser-context isolation (BROWSER=chrome-contexts): several scenarios share one Chrome process, each in
+ * its own browser context (incognito-like: separate cookies, storage and cache).
+ *
+ * Up to context.perBrowser scenarios share a host browser; more hosts are launched as needed. A scenario's
+ * session is a ChromeDriver attached to the host through its debugger address and switched to a tab of the
+ * scenario's context, so it only costs a chromedriver process, not a browser. Contexts are created and
+ * disposed over the host's browser-level DevTools connection. When the pool takes a session back, its
+ * context is replaced by a fresh one; quitting the session disposes its context and leaves the host running.
+ * A session only sees the tabs of its own context, and its DevTools session is attached to its own tab.
+ *
+ * Metrics: context.create (new context and tab, to compare with browser.startup.chrome of a BROWSER=chrome
+ * run), context.memoryPerScenarioMb (host browser memory divided by the scenarios using it, to compare with
+ * memory.peakSessionMb) and context.peakBrowserMb.
+ */
+public class BrowserContexts {
+
+    private static final int PER_BROWSER = Math.max(1, ConfigurationReader.getIntProperty("context.perBrowser", 4));
+
+    private static final List<Host> hosts = new ArrayList<>();
+    // host being launched and the sessions waiting for it, guarded by the class lock
+    private static CompletableFuture<Host> launching;
+    private static int launchingReserved;
+    private static final AtomicLong memorySamplesMb = new AtomicLong();
+    private static final AtomicLong memorySamples = new AtomicLong();
+
+    private BrowserContexts() {}
+
+    /*
+     * A session in a new browser context, on a host browser with room left.
+     */
+    public static ContextDriver newSession() {
+        Host host = reserveHost();
+        try {
+            ChromeOptions options = new ChromeOptions();
+            options.setExperimentalOption("debuggerAddress", host.debuggerAddress);
+            ChromeDriverService service = ChromeDriverService.createDefaultService();
+            ContextDriver driver = ProcessReaper.launch(service, () -> new ContextDriver(host, service, options), "chrome-contexts");
+            driver.counted = true;
+            driver.manage().timeouts().implicitlyWait(Duration.ofSeconds(10));
+            driver.renewContext();
+            return driver;
+        } catch (RuntimeException e) {
+            host.release();
+            throw e;
+        }
+    }
+
+    /*
+     * Quits the host browsers, once every scenario session is gone.
+     */
+    public static synchronized void shutdown() {
+        for (Host host : hosts) {
+            host.close();
+        }
+        hosts.clear();
+    }
+
+    /*
+     * A slot on a running host, or on the host being launched. Launching happens outside the lock, so sessions
+     * on running hosts and releases never wait for a browser start; up to context.perBrowser callers share one launch.
+     */
+    private static Host reserveHost() {
+        CompletableFuture<Host> pending;
+        boolean launcher = false;
+        synchronized (BrowserContexts.class) {
+            hosts.removeIf(host -> !host.isAlive());
+            for (Host host : hosts) {
+                if (host.active < PER_BROWSER) {
+                    host.active++;
+                    return host;
+                }
+            }
+            if (launching != null && launchingReserved < PER_BROWSER) {
+                launchingReserved++;
+                pending = launching;
+            } else {
+                pending = launching = new CompletableFuture<>();
+                launchingReserved = 1;
+                launcher = true;
+            }
+        }
+        if (launcher) {
+            try {
+                Host host = Host.launch();
+                synchronized (BrowserContexts.class) {
+                    hosts.add(host);
+                    // a launch is only superseded once all its slots are reserved
+                    host.active += launching == pending ? launchingReserved : PER_BROWSER;
+                    if (launching == pending) {
+                        launching = null;
+                    }
+                }
+                pending.complete(host);
+            } catch (RuntimeException e) {
+                synchronized (BrowserContexts.class) {
+                    if (launching == pending) {
+                        launching = null;
+                    }
+                }
+                pending.completeExceptionally(e);
+                throw e;
+            }
+        }
+        try {
+            return pending.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    /*
+     * A scenario session: an attached ChromeDriver whose current tab lives in the scenario's browser context.
+     */
+    public static class ContextDriver extends ChromeDriver {
+        private final Host host;
+        private volatile boolean counted;
+        private String contextId;
+
+        ContextDriver(Host host, ChromeDriverService service, ChromeOptions options) {
+            super(service, options);
+            this.host = host;
+        }
+
+        /*
+         * Moves the session to a tab of a brand-new browser context and disposes the previous context.
+         */
+        public synchronized void renewContext() {
+            long start = System.nanoTime();
+            String previous = contextId;
+            Map<String, Object> created = host.connection.send("Target.createBrowserContext", params("disposeOnDetach", false));
+            String newContext = (String) created.get("browserContextId");
+            Map<String, Object> target = host.connection.send("Target.createTarget",
+                    params("url", "about:blank", "browserContextId", newContext));
+            String targetId = (String) target.get("targetId");
+
+            // chromedriver picks the new tab up on its next command
+            Retry.named("switchToContext")
+                    .within(Duration.ofSeconds(5))
+                    .retryOn(NoSuchWindowException.class)
+                    .run(() -> switchTo().window(windowHandle(targetId)));
+            contextId = newContext;
+            // a DevTools session (request blocking) follows the scenario to its new tab
+            RequestBlocker.reattach(this);
+            if (previous != null) {
+                dispose(previous);
+            }
+            RunMetrics.recordNanos("context.create", System.nanoTime() - start);
+            host.sampleMemory();
+        }
+
+        /*
+         * Disposes the scenario's context (closing its tabs) and detaches from the host, which keeps running.
+         */
+        @Override
+        public void quit() {
+            try {
+                if (contextId != null) {
+                    dispose(contextId);
+                    contextId = null;
+                }
+            } finally {
+                if (counted) {
+                    counted = false;
+                    host.release();
+                }
+                super.quit();
+            }
+        }
+
+        /*
+         * Only the tabs of the scenario's own context: chromedriver sees every tab of the shared host browser.
+         */
+        @Override
+        @SuppressWarnings("unchecked")
+        public Set<String> getWindowHandles() {
+            Set<String> handles = super.getWindowHandles();
+            String context = contextId;
+            if (context == null) {
+                return handles;
+            }
+            List<Map<String, Object>> targets = (List<Map<String, Object>>) host.connection
+                    .send("Target.getTargets", params()).getOrDefault("targetInfos", new ArrayList<>());
+            Set<String> own = targets.stream()
+                    .filter(target -> context.equals(target.get("browserContextId")))
+                    .map(target -> String.valueOf(target.get("targetId")))
+                    .collect(Collectors.toSet());
+            return handles.stream()
+                    .filter(handle -> own.stream().anyMatch(targetId -> matches(handle, targetId)))
+                    .collect(Collectors.toCollection(LinkedHashSet::new));
+        }
+
+        private String windowHandle(String targetId) {
+            for (String handle : super.getWindowHandles()) {
+                if (matches(handle, targetId)) {
+                    return handle;
+                }
+            }
+            throw new NoSuchWindowException("Tab " + targetId + " of the new browser context is not visible yet");
+        }
+
+        private static boolean matches(String handle, String targetId) {
+            return handle.equalsIgnoreCase(targetId) || handle.toUpperCase().endsWith(targetId.toUpperCase());
+        }
+
+        private void dispose(String browserContextId) {
+            try {
+                host.connection.send("Target.disposeBrowserContext", params("browserContextId", browserContextId));
+            } catch (RuntimeException e) {
+                System.out.println("Could not dispose browser context " + browserContextId + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /*
+     * A browser process shared by up to context.perBrowser scenarios.
+     */
+    static class Host {
+        private final ChromeDriver driver;
+        private final String debuggerAddress;
+        private final BrowserConnection connection;
+        private int active;
+
+        private Host(ChromeDriver driver, String debuggerAddress, BrowserConnection connection) {
+            this.driver = driver;
+            this.debuggerAddress = debuggerAddress;
+            this.connection = connection;
+        }
+
+        @SuppressWarnings("unchecked")
+        static Host launch() {
+            long start = System.nanoTime();
+            ChromeOptions options = new ChromeOptions();
+            options.addArguments("--headless=new", "--disable-gpu", "--no-sandbox", "--disable-dev-shm-usage",
+                    "--window-size=1920,1080", "--force-device-scale-factor=1", "--disable-blink-features=AutomationControlled");
+            RecordReplayProxy.configure(options);
+            DriverBinaries.chromeDriver(options);
+            ChromeDriverService service = ChromeDriverService.createDefaultService();
+            ChromeDriver driver = ProcessReaper.launch(service, () -> new ChromeDriver(service, options), "chrome-contexts-host");
+            try {
+                Map<String, Object> chromeOptions = (Map<String, Object>) ((HasCapabilities) driver).getCapabilities()
+                        .getCapability("goog:chromeOptions");
+                String debuggerAddress = (String) chromeOptions.get("debuggerAddress");
+                Host host = new Host(driver, debuggerAddress, new BrowserConnection(debuggerAddress));
+                RunMetrics.recordNanos("context.hostStartup", System.nanoTime() - start);
+                RunMetrics.increment("context.hosts");
+                System.out.println("Launched host browser for browser contexts at " + debuggerAddress);
+                return host;
+            } catch (RuntimeException e) {
+                driver.quit();
+                throw e;
+            }
+        }
+
+        void release() {
+            synchronized (BrowserContexts.class) {
+                active--;
+            }
+        }
+
+        boolean isAlive() {
+            return connection.isOpen();
+        }
+
+        /*
+         * Memory of the browser process tree per scenario using it, when /proc is available.
+         */
+        void sampleMemory() {
+            long mb = ProcessReaper.sampleMb(driver);
+            int scenarios;
+            synchronized (BrowserContexts.class) {
+                scenarios = active;
+            }
+            if (mb < 0 || scenarios <= 0) {
+                return;
+            }
+            RunMetrics.recordMax("context.peakBrowserMb", mb);
+            long sum = memorySamplesMb.addAndGet(mb / scenarios);
+            RunMetrics.gauge("context.memoryPerScenarioMb", (double) sum / memorySamples.incrementAndGet());
+        }
+
+        void close() {
+            connection.close();
+            try {
+                driver.quit();
+            } catch (RuntimeException e) {
+                System.out.println("Could not quit host browser: " + e.getMessage());
+            }
+        }
+    }
+
+    /*
+     * Browser-level DevTools connection of a host: Target domain commands are only allowed there,
+     * not in the page sessions chromedriver exposes.
+     */
+    static class BrowserConnection implements WebSocket.Listener {
+        private final WebSocket socket;
+        private final AtomicInteger ids = new AtomicInteger();
+        private final Map<Integer, CompletableFuture<Map<String, Object>>> pending = new ConcurrentHashMap<>();
+        private final StringBuilder message = new StringBuilder();
+        private volatile boolean open = true;
+
+        BrowserConnection(String debuggerAddress) {
+            HttpClient http = HttpClient.newHttpClient();
+            try {
+                HttpResponse<String> version = http.send(
+                        HttpRequest.newBuilder(URI.create("http://" + debuggerAddress + "/json/version")).GET().build(),
+                        HttpResponse.BodyHandlers.ofString());
+                Map<String, Object> versionInfo = new Json().toType(version.body(), Json.MAP_TYPE);
+                String webSocketUrl = (String) versionInfo.get("webSocketDebuggerUrl");
+                this.socket = http.newWebSocketBuilder().buildAsync(URI.create(webSocketUrl), this).join();
+            } catch (IOException e) {
+                throw new WebDriverException("Could not connect to the browser at " + debuggerAddress, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new WebDriverException("Interrupted while connecting to the browser at " + debuggerAddress, e);
+            }
+        }
+
+        /*
+         * Sends a command and waits for its result.
+         */
+        @SuppressWarnings("unchecked")
+        Map<String, Object> send(String method, Map<String, Object> params) {
+            int id = ids.incrementAndGet();
+            CompletableFuture<Map<String, Object>> response = new CompletableFuture<>();
+            pending.put(id, response);
+            Map<String, Object> command = new LinkedHashMap<>();
+            command.put("id", id);
+            command.put("method", method);
+            command.put("params", params);
+            try {
+                synchronized (socket) {
+                    socket.sendText(new Json().toJson(command), true).join();
+                }
+                Map<String, Object> reply = response.get(30, TimeUnit.SECONDS);
+                if (reply.containsKey("error")) {
+                    throw new WebDriverException(method + " failed: " + ((Map<String, Object>) reply.get("error")).get("message"));
+                }
+                return (Map<String, Object>) reply.getOrDefault("result", new LinkedHashMap<>());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new WebDriverException("Interrupted while waiting for " + method, e);
+            } catch (WebDriverException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new WebDriverException(method + " failed", e);
+            } finally {
+                pending.remove(id);
+            }
+        }
+
+        boolean isOpen() {
+            return open;
+        }
+
+        void close() {
+            open = false;
+            socket.sendClose(WebSocket.NORMAL_CLOSURE, "");
+        }
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            message.append(data);
+            if (last) {
+                Map<String, Object> reply = new Json().toType(message.toString(), Json.MAP_TYPE);
+                message.setLength(0);
+                // events have no id and are not needed here
+                Object id = reply.get("id");
+                if (id instanceof Number) {
+                    CompletableFuture<Map<String, Object>> response = pending.get(((Number) id).intValue());
+                    if (response != null) {
+                        response.complete(reply);
+                    }
+                }
+            }
+            webSocket.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+            open = false;
+            pending.values().forEach(response -> response.completeExceptionally(
+                    new WebDriverException("Browser connection closed: " + reason)));
+            return null;
+        }
+
+        @Override
+        public void onError(WebSocket webSocket, Throwable error) {
+            onClose(webSocket, WebSocket.NORMAL_CLOSURE, String.valueOf(error.getMessage()));
+        }
+    }
+
+    private static Map<String, Object> params(Object... keysAndValues) {
+        Map<String, Object> params = new LinkedHashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            params.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return params;
+    }
+}
@@ -5,7 +5,6 @@ import org.openqa.selenium.*;
 import org.openqa.selenium.interactions.Actions;
 import org.openqa.selenium.support.ui.ExpectedCondition;
 import org.openqa.selenium.support.ui.ExpectedConditions;
-import org.openqa.selenium.support.ui.Select;
 import org.openqa.selenium.support.ui.WebDriverWait;
 
 import java.time.Duration;
@@ -18,16 +17,12 @@ public class BrowserUtils {
 
     /*
     This method will accept int (in seconds)
-    and execute Thread.sleep method for given duration
+    and wait for the page to be ready, for at most the given duration.
+    If no browser is open yet it simply pauses for the given duration.
     Arg: int second
      */
     public static void sleep(int second){
-        second *= 1000;
-        try{
-            Thread.sleep(second);
-        }catch (InterruptedException e){
-
-        }
+        waitFor(second);
     }
 
     public static void switchWindowAndVerify(String expectedInURL, String expectedInTitle){
@@ -83,20 +78,20 @@ public class BrowserUtils {
 
     /**
      * This method accepts a dropdown element and returns a List<String> that contains all options values as String.
+     * All option texts are read with a single script call.
      * @param dropdownElement
      * @return actualMonth_as_STRING
      */
     public static List<String> dropdownOptions_as_STRING(WebElement dropdownElement){
 
-        Select month = new Select(dropdownElement);
-        //Storing all the ACTUAL options into a List of WebElements
-        List<WebElement> actualMonth_as_WEBELEMENT = month.getOptions();
+        //Reading all the ACTUAL options of the dropdown in one round trip
+        List<BulkExtractor.ElementSnapshot> actualMonth_as_SNAPSHOT =
+                BulkExtractor.extract(Driver.getDriver(), dropdownElement, By.tagName("option"));
 
         //Creating an EMPTY list of String to store ACTUAL <option> as String
         List<String> actualMonth_as_STRING = new ArrayList<>();
 
-        //Looping through the List<WebElement>, getting all options' texts, and storing them into List<String>
-        for (WebElement each : actualMonth_as_WEBELEMENT) {
+        for (BulkExtractor.ElementSnapshot each : actualMonth_as_SNAPSHOT) {
 
             actualMonth_as_STRING.add(each.getText());
 
@@ -148,44 +143,97 @@ public class BrowserUtils {
     }
 
     /**
-     * return a list of string from a list of elements
+     * return a list of string from a list of elements, read with a single script call
      *
      * @param list of webelements
      * @return list of string
      */
     public static List<String> getElementsText(List<WebElement> list) {
         List<String> elemTexts = new ArrayList<>();
-        for (WebElement el : list) {
+        for (BulkExtractor.ElementSnapshot el : BulkExtractor.extract(Driver.getDriver(), list)) {
             elemTexts.add(el.getText());
         }
         return elemTexts;
     }
 
     /**
-     * Extracts text from list of elements matching the provided locator into new List<String>
+     * Extracts text from list of elements matching the provided locator into new List<String>,
+     * with a single script call
      *
      * @param locator
      * @return list of strings
      */
     public static List<String> getElementsText(By locator) {
-
-        List<WebElement> elems = Driver.getDriver().findElements(locator);
         List<String> elemTexts = new ArrayList<>();
-
-        for (WebElement el : elems) {
+        for (BulkExtractor.ElementSnapshot el : BulkExtractor.extract(Driver.getDriver(), locator)) {
             elemTexts.add(el.getText());
         }
         return elemTexts;
     }
 
     /**
-     * Performs a pause
+     * Returns text, visibility, bounding box and the requested attributes of every element
+     * matching the locator, with a single script call
      *
-     * @param seconds
+     * @param locator
+     * @param attributeNames attributes to read, e.g. "href", "value"
+     * @return one snapshot per matching element
+     */
+    public static List<BulkExtractor.ElementSnapshot> extractElements(By locator, String... attributeNames) {
+        return BulkExtractor.extract(Driver.getDriver(), locator, attributeNames);
+    }
+
+    /**
+     * Starts a composite action on the element: a sequence such as focus, set value, submit and wait
+     * for a URL/DOM condition, run in the browser with one script call (see {@link CompositeAction})
+     *
+     * @param element
+     * @return the action to declare the sequence on, then perform()
+     */
+    public static CompositeAction compose(WebElement element) {
+        return CompositeAction.on(Driver.getDriver(), element);
+    }
+
+    /**
+     * Waits until the page is ready (see {@link PageReadiness}), for at most the given number of seconds.
+     * Performs a plain pause when no browser session is open on this thread.
+     *
+     * @param seconds upper bound of the wait
      */
     public static void waitFor(int seconds) {
+        if (Driver.hasDriver()) {
+            PageReadiness.waitInsteadOfSleep(Driver.getDriver(), Duration.ofSeconds(seconds));
+        } else {
+            pause(seconds * 1000L);
+        }
+    }
+
+    /**
+     * Waits until the page is ready and the current URL contains the given value,
+     * for at most the given number of seconds.
+     *
+     * @param expectedInURL
+     * @param seconds upper bound of the wait
+     */
+    public static void waitForPageReady(String expectedInURL, int seconds) {
+        PageReadiness.waitForReady(Driver.getDriver(), Duration.ofSeconds(seconds), url -> url.contains(expectedInURL));
+    }
+
+    /**
+     * Waits until the page is ready, for at most readiness.timeout seconds.
+     */
+    public static void waitForPageReady() {
+        PageReadiness.waitForReady(Driver.getDriver(), PageReadiness.DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Performs a fixed pause, only for cases where time itself matters (e.g. visual highlighting)
+     *
+     * @param millis
+     */
+    private static void pause(long millis) {
         try {
-            Thread.sleep(seconds * 1000);
+            Thread.sleep(millis);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
@@ -313,28 +361,10 @@ public class BrowserUtils {
      * @param element
      */
     public static void waitForStaleElement(WebElement element) {
-        int y = 0;
-        while (y <= 15) {
-            if (y == 1)
-                try {
-                    element.isDisplayed();
-                    break;
-                } catch (StaleElementReferenceException st) {
-                    y++;
-                    try {
-                        Thread.sleep(300);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                } catch (WebDriverException we) {
-                    y++;
-                    try {
-                        Thread.sleep(300);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                }
-        }
+        Retry.named("waitForStaleElement")
+                .within(Duration.ofSeconds(5))
+                .retryOn(StaleElementReferenceException.class, WebDriverException.class)
+                .tryRun(element::isDisplayed);
     }
 
 
@@ -384,7 +414,7 @@ public class BrowserUtils {
      */
     public static void highlight(WebElement element) {
         ((JavascriptExecutor) Driver.getDriver()).executeScript("arguments[0].setAttribute('style', 'background: yellow; border: 2px solid red;');", element);
-        waitFor(1);
+        pause(1000);
         ((JavascriptExecutor) Driver.getDriver()).executeScript("arguments[0].removeAttribute('style', 'background: yellow; border: 2px solid red;');", element);
     }
 
@@ -413,14 +443,9 @@ public class BrowserUtils {
      * @param timeout
      */
     public static void clickWithTimeOut(WebElement element, int timeout) {
-        for (int i = 0; i < timeout; i++) {
-            try {
-                element.click();
-                return;
-            } catch (WebDriverException e) {
-                waitFor(1);
-            }
-        }
+        Retry.named("clickWithTimeOut")
+                .within(Duration.ofSeconds(timeout))
+                .tryRun(element::click);
     }
 
     /**
@@ -454,23 +479,14 @@ public class BrowserUtils {
      * @param attempts
      */
     public static void clickWithWait(By by, int attempts) {
-        int counter = 0;
-        //click on element as many as you specified in attempts parameter
-        while (counter < attempts) {
-            try {
-                //selenium must look for element again
-                clickWithJS(Driver.getDriver().findElement(by));
-                //if click is successful - then break
-                break;
-            } catch (WebDriverException e) {
-                //if click failed
-                //print exception
-                //print attempt
-                e.printStackTrace();
-                ++counter;
-                //wait for 1 second, and try to click again
-                waitFor(1);
-            }
+        try {
+            //selenium must look for element again on every attempt
+            Retry.named("clickWithWait")
+                    .attempts(attempts)
+                    .run(() -> clickWithJS(Driver.getDriver().findElement(by)));
+        } catch (WebDriverException e) {
+            //all attempts failed - print the last exception
+            e.printStackTrace();
         }
     }
 
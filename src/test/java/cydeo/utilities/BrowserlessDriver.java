@@ -0,0 +1,455 @@
+package cydeo.utilities;
+
+import org.htmlunit.ScriptException;
+import org.openqa.selenium.By;
+import org.openqa.selenium.Capabilities;
+import org.openqa.selenium.Cookie;
+import org.openqa.selenium.Dimension;
+import org.openqa.selenium.HasCapabilities;
+import org.openqa.selenium.JavascriptException;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.OutputType;
+import org.openqa.selenium.Point;
+import org.openqa.selenium.Rectangle;
+import org.openqa.selenium.SearchContext;
+import org.openqa.selenium.TakesScreenshot;
+import org.openqa.selenium.UnsupportedCommandException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.WrapsElement;
+import org.openqa.selenium.interactions.Interactive;
+import org.openqa.selenium.interactions.Sequence;
+import org.openqa.selenium.support.decorators.Decorated;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/*
+ * Session of BROWSER=htmlunit and @browserless scenarios: an in-JVM HTML engine (HtmlUnit, with JavaScript)
+ * that starts no browser process, for pages and checks that don't need rendering.
+ *
+ * Operations HtmlUnit can't do (screenshots, shadow roots, commands it doesn't implement) and scripts its
+ * JavaScript engine fails on move the session to a real browser of type browserless.fallback (headless-chrome
+ * by default): it opens the current URL with the same cookies and the operation is retried there. The session
+ * stays on the real browser from then on. Elements found before keep working, they are looked up again
+ * on the real browser with the locators that found them. Form input that was not submitted is lost.
+ *
+ * Not a WrapsDriver: the session decorator wraps every result again, so WebDriverWait would unwrap it forever.
+ *
+ * Metrics: browserless.fallback (sessions that needed a real browser) and browserless.fallback.<operation>.
+ */
+public class BrowserlessDriver implements WebDriver, JavascriptExecutor, TakesScreenshot, HasCapabilities, Interactive {
+
+    private final WebDriver htmlUnit;
+    private final String fallbackType;
+    private final Supplier<WebDriver> fallback;
+
+    private volatile WebDriver delegate;
+    // bumped when the session moves to the real browser, so elements know to look themselves up again
+    private volatile int generation;
+
+    public BrowserlessDriver(WebDriver htmlUnit, String fallbackType, Supplier<WebDriver> fallback) {
+        this.htmlUnit = htmlUnit;
+        this.fallbackType = fallbackType;
+        this.fallback = fallback;
+        this.delegate = htmlUnit;
+    }
+
+    /*
+     * Whether the session is still on the HTML engine, given the decorated or the raw session.
+     */
+    public static boolean isBrowserless(WebDriver driver) {
+        WebDriver raw = driver instanceof Decorated ? (WebDriver) ((Decorated<?>) driver).getOriginal() : driver;
+        return raw instanceof BrowserlessDriver && !((BrowserlessDriver) raw).hasFallenBack();
+    }
+
+    public boolean hasFallenBack() {
+        return delegate != htmlUnit;
+    }
+
+    @Override
+    public void get(String url) {
+        call("get", driver -> {
+            driver.get(url);
+            return null;
+        });
+    }
+
+    @Override
+    public String getCurrentUrl() {
+        return call("getCurrentUrl", WebDriver::getCurrentUrl);
+    }
+
+    @Override
+    public String getTitle() {
+        return call("getTitle", WebDriver::getTitle);
+    }
+
+    @Override
+    public List<WebElement> findElements(By by) {
+        List<WebElement> found = call("findElements", driver -> driver.findElements(by));
+        List<WebElement> elements = new ArrayList<>();
+        for (int i = 0; i < found.size(); i++) {
+            elements.add(new FallbackElement(null, by, i, found.get(i)));
+        }
+        return elements;
+    }
+
+    @Override
+    public WebElement findElement(By by) {
+        return new FallbackElement(null, by, -1, call("findElement", driver -> driver.findElement(by)));
+    }
+
+    @Override
+    public String getPageSource() {
+        return call("getPageSource", WebDriver::getPageSource);
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    /*
+     * The fallback browser was launched through ProcessReaper on its own, so it is sampled and reaped here:
+     * the pool and Driver only know this session.
+     */
+    @Override
+    public void quit() {
+        WebDriver current = delegate;
+        if (current == htmlUnit) {
+            htmlUnit.quit();
+            return;
+        }
+        try {
+            ProcessReaper.sampleMb(current);
+            current.quit();
+        } finally {
+            ProcessReaper.reap(current);
+            htmlUnit.quit();
+        }
+    }
+
+    @Override
+    public Set<String> getWindowHandles() {
+        return call("getWindowHandles", WebDriver::getWindowHandles);
+    }
+
+    @Override
+    public String getWindowHandle() {
+        return call("getWindowHandle", WebDriver::getWindowHandle);
+    }
+
+    @Override
+    public TargetLocator switchTo() {
+        return delegate.switchTo();
+    }
+
+    @Override
+    public Navigation navigate() {
+        return delegate.navigate();
+    }
+
+    @Override
+    public Options manage() {
+        return delegate.manage();
+    }
+
+    @Override
+    public Object executeScript(String script, Object... args) {
+        return script("executeScript", driver -> ((JavascriptExecutor) driver).executeScript(script, unwrap(args)));
+    }
+
+    @Override
+    public Object executeAsyncScript(String script, Object... args) {
+        return script("executeAsyncScript", driver -> ((JavascriptExecutor) driver).executeAsyncScript(script, unwrap(args)));
+    }
+
+    @Override
+    public <X> X getScreenshotAs(OutputType<X> target) {
+        if (!(delegate instanceof TakesScreenshot)) {
+            fallBack("screenshot", "HtmlUnit renders nothing to take a screenshot of");
+        }
+        return ((TakesScreenshot) delegate).getScreenshotAs(target);
+    }
+
+    @Override
+    public Capabilities getCapabilities() {
+        return ((HasCapabilities) delegate).getCapabilities();
+    }
+
+    @Override
+    public void perform(Collection<Sequence> actions) {
+        call("perform", driver -> {
+            ((Interactive) driver).perform(actions);
+            return null;
+        });
+    }
+
+    @Override
+    public void resetInputState() {
+        ((Interactive) delegate).resetInputState();
+    }
+
+    /*
+     * Runs the command on the current engine; if HtmlUnit doesn't support it, moves to the real browser and runs it there.
+     */
+    private <T> T call(String operation, Function<WebDriver, T> command) {
+        WebDriver current = delegate;
+        try {
+            return command.apply(current);
+        } catch (UnsupportedOperationException | UnsupportedCommandException e) {
+            if (current != htmlUnit) {
+                throw e;
+            }
+            fallBack(operation, String.valueOf(e.getMessage()));
+            return command.apply(delegate);
+        }
+    }
+
+    /*
+     * Like call(), but script errors on HtmlUnit also move the session: its engine lacks parts of modern JavaScript.
+     * A script that is really broken fails on the real browser too.
+     */
+    private Object script(String operation, Function<WebDriver, Object> command) {
+        WebDriver current = delegate;
+        try {
+            return call(operation, command);
+        } catch (JavascriptException | ScriptException e) {
+            if (current != htmlUnit) {
+                throw e;
+            }
+            fallBack(operation, e.getMessage().split("\n")[0]);
+            return command.apply(delegate);
+        }
+    }
+
+    private Object[] unwrap(Object[] args) {
+        Object[] unwrapped = new Object[args.length];
+        for (int i = 0; i < args.length; i++) {
+            unwrapped[i] = args[i] instanceof FallbackElement ? ((FallbackElement) args[i]).current() : args[i];
+        }
+        return unwrapped;
+    }
+
+    /*
+     * Continues the session on a real browser at the same URL with the same cookies.
+     */
+    private synchronized void fallBack(String operation, String reason) {
+        if (delegate != htmlUnit) {
+            return;
+        }
+        System.out.println("Browserless session can't do " + operation + " (" + reason + "), continuing in " + fallbackType);
+        RunMetrics.increment("browserless.fallback");
+        RunMetrics.increment("browserless.fallback." + operation);
+
+        String url = htmlUnit.getCurrentUrl();
+        Set<Cookie> cookies = htmlUnit.manage().getCookies();
+        long start = System.nanoTime();
+        WebDriver real = fallback.get();
+        try {
+            if (url != null && (url.startsWith("http") || url.startsWith("file:"))) {
+                real.get(url);
+                if (!cookies.isEmpty()) {
+                    for (Cookie cookie : cookies) {
+                        try {
+                            real.manage().addCookie(cookie);
+                        } catch (WebDriverException e) {
+                            // cookie of another domain than the current page's
+                        }
+                    }
+                    real.navigate().refresh();
+                }
+            }
+        } catch (RuntimeException e) {
+            real.quit();
+            throw e;
+        }
+        RunMetrics.recordNanos("browserless.fallbackStartup", System.nanoTime() - start);
+        delegate = real;
+        generation++;
+    }
+
+    /*
+     * Element found through the browserless session, remembered with the locator that found it
+     * so it can be found again once the session has moved to the real browser.
+     */
+    private class FallbackElement implements WebElement, WrapsElement {
+        private final FallbackElement parent;
+        private final By by;
+        // position in the findElements result, -1 for findElement
+        private final int index;
+        private WebElement element;
+        private int elementGeneration = generation;
+
+        FallbackElement(FallbackElement parent, By by, int index, WebElement element) {
+            this.parent = parent;
+            this.by = by;
+            this.index = index;
+            this.element = element;
+        }
+
+        synchronized WebElement current() {
+            if (elementGeneration != generation) {
+                SearchContext context = parent == null ? delegate : parent.current();
+                element = index < 0 ? context.findElement(by) : context.findElements(by).get(index);
+                elementGeneration = generation;
+            }
+            return element;
+        }
+
+        private <T> T call(String operation, Function<WebElement, T> command) {
+            WebElement current = current();
+            try {
+                return command.apply(current);
+            } catch (UnsupportedOperationException | UnsupportedCommandException e) {
+                if (hasFallenBack()) {
+                    throw e;
+                }
+                fallBack(operation, String.valueOf(e.getMessage()));
+                return command.apply(current());
+            }
+        }
+
+        private void run(String operation, Consumer<WebElement> command) {
+            call(operation, element -> {
+                command.accept(element);
+                return null;
+            });
+        }
+
+        @Override
+        public void click() {
+            run("click", WebElement::click);
+        }
+
+        @Override
+        public void submit() {
+            run("submit", WebElement::submit);
+        }
+
+        @Override
+        public void sendKeys(CharSequence... keysToSend) {
+            run("sendKeys", element -> element.sendKeys(keysToSend));
+        }
+
+        @Override
+        public void clear() {
+            run("clear", WebElement::clear);
+        }
+
+        @Override
+        public String getTagName() {
+            return call("getTagName", WebElement::getTagName);
+        }
+
+        @Override
+        public String getDomProperty(String name) {
+            return call("getDomProperty", element -> element.getDomProperty(name));
+        }
+
+        @Override
+        public String getDomAttribute(String name) {
+            return call("getDomAttribute", element -> element.getDomAttribute(name));
+        }
+
+        @Override
+        public String getAttribute(String name) {
+            return call("getAttribute", element -> element.getAttribute(name));
+        }
+
+        @Override
+        public String getAriaRole() {
+            return call("getAriaRole", WebElement::getAriaRole);
+        }
+
+        @Override
+        public String getAccessibleName() {
+            return call("getAccessibleName", WebElement::getAccessibleName);
+        }
+
+        @Override
+        public boolean isSelected() {
+            return call("isSelected", WebElement::isSelected);
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return call("isEnabled", WebElement::isEnabled);
+        }
+
+        @Override
+        public String getText() {
+            return call("getText", WebElement::getText);
+        }
+
+        @Override
+        public List<WebElement> findElements(By by) {
+            List<WebElement> found = call("findElements", element -> element.findElements(by));
+            List<WebElement> elements = new ArrayList<>();
+            for (int i = 0; i < found.size(); i++) {
+                elements.add(new FallbackElement(this, by, i, found.get(i)));
+            }
+            return elements;
+        }
+
+        @Override
+        public WebElement findElement(By by) {
+            return new FallbackElement(this, by, -1, call("findElement", element -> element.findElement(by)));
+        }
+
+        @Override
+        public SearchContext getShadowRoot() {
+            return call("getShadowRoot", WebElement::getShadowRoot);
+        }
+
+        @Override
+        public boolean isDisplayed() {
+            return call("isDisplayed", WebElement::isDisplayed);
+        }
+
+        @Override
+        public Point getLocation() {
+            return call("getLocation", WebElement::getLocation);
+        }
+
+        @Override
+        public Dimension getSize() {
+            return call("getSize", WebElement::getSize);
+        }
+
+        @Override
+        public Rectangle getRect() {
+            return call("getRect", WebElement::getRect);
+        }
+
+        @Override
+        public String getCssValue(String propertyName) {
+            return call("getCssValue", element -> element.getCssValue(propertyName));
+        }
+
+        @Override
+        public <X> X getScreenshotAs(OutputType<X> target) {
+            if (!hasFallenBack()) {
+                fallBack("elementScreenshot", "HtmlUnit renders nothing to take a screenshot of");
+            }
+            return current().getScreenshotAs(target);
+        }
+
+        @Override
+        public WebElement getWrappedElement() {
+            return current();
+        }
+
+        @Override
+        public String toString() {
+            return "Browserless element '" + by + "'" + (index < 0 ? "" : "[" + index + "]");
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package cydeo.utilities;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.SearchContext;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Reads text, chosen attributes, visibility and bounding box of many elements with a single script execution,
+ * instead of one WebDriver command per element and property.
+ *
+ * CSS, XPath, tag name and link text locators are resolved inside the page, so a whole extraction is
+ * one round trip. Other locators (ByChained, ByAll...) cost one findElements plus the script.
+ */
+public class BulkExtractor {
+
+    // Returns one compact array per element: [tagName, text, visible, x, y, width, height, {attributes}]
+    private static final String EXTRACT =
+            "var using = arguments[0], value = arguments[1], elements = arguments[2], root = arguments[3] || document," +
+            "    attributeNames = arguments[4];" +
+            "if (!elements) {" +
+            "  elements = [];" +
+            "  if (using === 'css selector') {" +
+            "    elements = Array.prototype.slice.call(root.querySelectorAll(value));" +
+            "  } else if (using === 'xpath') {" +
+            "    var found = document.evaluate(value, root, null, XPathResult.ORDERED_NODE_SNAPSHOT_TYPE, null);" +
+            "    for (var i = 0; i < found.snapshotLength; i++) { elements.push(found.snapshotItem(i)); }" +
+            "  } else if (using === 'tag name') {" +
+            "    elements = Array.prototype.slice.call(root.getElementsByTagName(value));" +
+            "  } else {" +
+            "    elements = Array.prototype.slice.call(root.getElementsByTagName('a')).filter(function (a) {" +
+            "      var text = (a.innerText || '').trim();" +
+            "      return using === 'link text' ? text === value : text.indexOf(value) >= 0;" +
+            "    });" +
+            "  }" +
+            "}" +
+            "function isVisible(el) {" +
+            "  if (el.tagName === 'OPTION' && el.closest('select')) { el = el.closest('select'); }" +
+            "  var style = window.getComputedStyle(el), rect = el.getBoundingClientRect();" +
+            "  return rect.width > 0 && rect.height > 0 && style.visibility !== 'hidden'" +
+            "    && style.display !== 'none' && parseFloat(style.opacity) !== 0;" +
+            "}" +
+            "return elements.map(function (el) {" +
+            "  var rect = el.getBoundingClientRect(), visible = isVisible(el), attributes = {};" +
+            "  for (var i = 0; i < attributeNames.length; i++) { attributes[attributeNames[i]] = el.getAttribute(attributeNames[i]); }" +
+            "  var text = !visible ? '' : el.tagName === 'OPTION' ? el.text : (el.innerText || el.textContent || '');" +
+            "  return [el.tagName.toLowerCase(), text.replace(/\\u00a0/g, ' ').trim(), visible," +
+            "    rect.x, rect.y, rect.width, rect.height, attributes];" +
+            "});";
+
+    private static final List<String> IN_PAGE_STRATEGIES = Arrays.asList("css selector", "xpath", "tag name", "link text", "partial link text");
+
+    private BulkExtractor() {}
+
+    /*
+     * Every element matching the locator on the current page.
+     */
+    public static List<ElementSnapshot> extract(WebDriver driver, By locator, String... attributeNames) {
+        return extract(driver, null, locator, attributeNames);
+    }
+
+    /*
+     * Every element matching the locator inside the given element, e.g. the options of a dropdown.
+     */
+    public static List<ElementSnapshot> extract(WebDriver driver, WebElement root, By locator, String... attributeNames) {
+        if (locator instanceof By.Remotable) {
+            By.Remotable.Parameters parameters = ((By.Remotable) locator).getRemoteParameters();
+            if (IN_PAGE_STRATEGIES.contains(parameters.using())) {
+                RunMetrics.increment("bulkExtract.inPage");
+                return run(driver, parameters.using(), parameters.value(), null, root, attributeNames);
+            }
+        }
+        RunMetrics.increment("bulkExtract.findElements");
+        SearchContext context = root == null ? driver : root;
+        return extract(driver, context.findElements(locator), attributeNames);
+    }
+
+    /*
+     * The given elements, e.g. a List<WebElement> field of a page object.
+     */
+    public static List<ElementSnapshot> extract(WebDriver driver, List<WebElement> elements, String... attributeNames) {
+        if (elements.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return run(driver, null, null, elements, null, attributeNames);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<ElementSnapshot> run(WebDriver driver, String using, Object value, List<WebElement> elements,
+                                             WebElement root, String[] attributeNames) {
+        List<Object> rows = (List<Object>) ((JavascriptExecutor) driver).executeScript(
+                EXTRACT, using, value, elements, root, Arrays.asList(attributeNames));
+
+        List<ElementSnapshot> snapshots = new ArrayList<>(rows.size());
+        for (Object row : rows) {
+            List<Object> values = (List<Object>) row;
+            Map<String, String> attributes = new LinkedHashMap<>();
+            ((Map<String, Object>) values.get(7)).forEach((name, attribute) ->
+                    attributes.put(name, attribute == null ? null : attribute.toString()));
+            snapshots.add(new ElementSnapshot(
+                    (String) values.get(0),
+                    (String) values.get(1),
+                    Boolean.TRUE.equals(values.get(2)),
+                    number(values.get(3)), number(values.get(4)), number(values.get(5)), number(values.get(6)),
+                    attributes));
+        }
+        return snapshots;
+    }
+
+    private static double number(Object value) {
+        return value == null ? 0 : ((Number) value).doubleValue();
+    }
+
+    /*
+     * What the page reported about one element at extraction time.
+     */
+    public static class ElementSnapshot {
+        private final String tagName;
+        private final String text;
+        private final boolean visible;
+        private final double x;
+        private final double y;
+        private final double width;
+        private final double height;
+        private final Map<String, String> attributes;
+
+        ElementSnapshot(String tagName, String text, boolean visible, double x, double y, double width, double height,
+                        Map<String, String> attributes) {
+            this.tagName = tagName;
+            this.text = text;
+            this.visible = visible;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.attributes = attributes;
+        }
+
+        public String getTagName() {
+            return tagName;
+        }
+
+        /*
+         * Rendered text, trimmed; empty for hidden elements, like WebElement.getText().
+         */
+        public String getText() {
+            return text;
+        }
+
+        public boolean isVisible() {
+            return visible;
+        }
+
+        public double getX() {
+            return x;
+        }
+
+        public double getY() {
+            return y;
+        }
+
+        public double getWidth() {
+            return width;
+        }
+
+        public double getHeight() {
+            return height;
+        }
+
+        /*
+         * Value of an attribute requested at extraction time, null if the element doesn't have it.
+         */
+        public String getAttribute(String name) {
+            return attributes.get(name);
+        }
+
+        @Override
+        public String toString() {
+            return "<" + tagName + "> '" + text + "'" + (visible ? "" : " (hidden)") + " " + attributes;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package cydeo.utilities;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.SearchContext;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.support.decorators.Decorated;
+import org.openqa.selenium.support.pagefactory.Annotations;
+import org.openqa.selenium.support.pagefactory.DefaultElementLocator;
+import org.openqa.selenium.support.pagefactory.ElementLocator;
+import org.openqa.selenium.support.pagefactory.ElementLocatorFactory;
+
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.function.Supplier;
+
+/*
+ * ElementLocatorFactory that remembers the elements it resolved for the current page load.
+ *
+ * Plain PageFactory sends a findElement on every use of a field, which is a network hop on a remote grid.
+ * Here the first use of a field finds the element and later uses reuse it, until the session loads
+ * another page or switches window/frame (tracked by CommandTimingDecorator) or the element goes stale
+ * (handled by CachingFieldDecorator). Fields annotated with @NoCache keep the default behaviour.
+ * Lists are always looked up again, since any of their elements may have changed.
+ *
+ * The search context can be given as a Supplier, e.g. Driver::getDriver: it is only asked for on the
+ * first lookup, so creating a page object doesn't start a browser.
+ */
+public class CachingElementLocatorFactory implements ElementLocatorFactory {
+
+    private final Supplier<? extends SearchContext> searchContext;
+
+    public CachingElementLocatorFactory(SearchContext searchContext) {
+        this(() -> searchContext);
+    }
+
+    public CachingElementLocatorFactory(Supplier<? extends SearchContext> searchContext) {
+        this.searchContext = searchContext;
+    }
+
+    @Override
+    public ElementLocator createLocator(Field field) {
+        if (field.isAnnotationPresent(NoCache.class)) {
+            return new DefaultElementLocator(new LazySearchContext(searchContext), field);
+        }
+        return new CachingElementLocator(searchContext, new Annotations(field).buildBy());
+    }
+
+    public static class CachingElementLocator implements ElementLocator {
+
+        private final Supplier<? extends SearchContext> searchContext;
+        private final By by;
+
+        private WebElement cachedElement;
+        private long cachedGeneration;
+
+        CachingElementLocator(Supplier<? extends SearchContext> searchContext, By by) {
+            this.searchContext = searchContext;
+            this.by = by;
+        }
+
+        @Override
+        public synchronized WebElement findElement() {
+            SearchContext searchContext = this.searchContext.get();
+            long generation = pageGeneration(searchContext);
+            if (cachedElement != null && cachedGeneration == generation) {
+                RunMetrics.increment("locatorCache.hit");
+                return cachedElement;
+            }
+            RunMetrics.increment("locatorCache.miss");
+            cachedElement = searchContext.findElement(by);
+            cachedGeneration = generation;
+            return cachedElement;
+        }
+
+        @Override
+        public List<WebElement> findElements() {
+            return searchContext.get().findElements(by);
+        }
+
+        /*
+         * Drops the cached element, e.g. after it went stale.
+         */
+        public synchronized void invalidate() {
+            RunMetrics.increment("locatorCache.stale");
+            cachedElement = null;
+        }
+
+        private static long pageGeneration(SearchContext searchContext) {
+            if (searchContext instanceof Decorated
+                    && ((Decorated<?>) searchContext).getDecorator() instanceof CommandTimingDecorator) {
+                return ((CommandTimingDecorator) ((Decorated<?>) searchContext).getDecorator()).pageGeneration();
+            }
+            // not a decorated session: page changes can't be seen, only staleness drops the element
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Caching locator '" + by + "'";
+        }
+    }
+
+    /*
+     * Resolves the search context on each lookup, for the locators PageFactory doesn't cache (@NoCache).
+     */
+    private static class LazySearchContext implements SearchContext {
+
+        private final Supplier<? extends SearchContext> searchContext;
+
+        LazySearchContext(Supplier<? extends SearchContext> searchContext) {
+            this.searchContext = searchContext;
+        }
+
+        @Override
+        public List<WebElement> findElements(By by) {
+            return searchContext.get().findElements(by);
+        }
+
+        @Override
+        public WebElement findElement(By by) {
+            return searchContext.get().findElement(by);
+        }
+    }
+}
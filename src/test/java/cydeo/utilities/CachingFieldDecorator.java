@@ -0,0 +1,78 @@
+package cydeo.utilities;
+
+import org.openqa.selenium.SearchContext;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.WrapsElement;
+import org.openqa.selenium.interactions.Locatable;
+import org.openqa.selenium.support.pagefactory.DefaultFieldDecorator;
+import org.openqa.selenium.support.pagefactory.ElementLocator;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.function.Supplier;
+
+/*
+ * Field decorator for page objects backed by CachingElementLocatorFactory.
+ * Usage in a page constructor: PageFactory.initElements(new CachingFieldDecorator(Driver::getDriver), this);
+ * (with the Supplier the scenario's browser is only acquired when an element is first used).
+ *
+ * When a cached element turns out to be stale, it is dropped, looked up again and the call is retried once.
+ */
+public class CachingFieldDecorator extends DefaultFieldDecorator {
+
+    public CachingFieldDecorator(SearchContext searchContext) {
+        super(new CachingElementLocatorFactory(searchContext));
+    }
+
+    public CachingFieldDecorator(Supplier<? extends SearchContext> searchContext) {
+        super(new CachingElementLocatorFactory(searchContext));
+    }
+
+    @Override
+    protected WebElement proxyForLocator(ClassLoader loader, ElementLocator locator) {
+        if (!(locator instanceof CachingElementLocatorFactory.CachingElementLocator)) {
+            return super.proxyForLocator(loader, locator);
+        }
+        InvocationHandler handler = new StaleRetryingHandler((CachingElementLocatorFactory.CachingElementLocator) locator);
+        return (WebElement) Proxy.newProxyInstance(loader,
+                new Class<?>[]{WebElement.class, WrapsElement.class, Locatable.class}, handler);
+    }
+
+    private static class StaleRetryingHandler implements InvocationHandler {
+
+        private final CachingElementLocatorFactory.CachingElementLocator locator;
+
+        StaleRetryingHandler(CachingElementLocatorFactory.CachingElementLocator locator) {
+            this.locator = locator;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if ("toString".equals(method.getName())) {
+                return "Proxy element for: " + locator;
+            }
+            WebElement element = locator.findElement();
+            if ("getWrappedElement".equals(method.getName())) {
+                return element;
+            }
+            try {
+                return method.invoke(element, args);
+            } catch (InvocationTargetException e) {
+                if (!(e.getCause() instanceof StaleElementReferenceException)) {
+                    throw e.getCause();
+                }
+            }
+
+            // the page changed under the cached element, find it again and retry once
+            locator.invalidate();
+            try {
+                return method.invoke(locator.findElement(), args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package cydeo.utilities;
+
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.support.decorators.Decorated;
+import org.openqa.selenium.support.decorators.WebDriverDecorator;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/*
+ * Decorates a session so that the latency of every WebDriver command (driver, element, navigation,
+ * window, alert... calls) is recorded into a histogram named command.<Interface>.<method>.
+ * It also counts explicit page changes (get, navigate, window/frame switches) so that caches of
+ * page elements, like CachingElementLocatorFactory, know when to drop what they resolved.
+ *
+ * It hooks WebDriverDecorator.call directly instead of going through EventFiringDecorator, whose
+ * listener dispatch looks up the matching before/after methods reflectively on every call.
+ * Here a command costs two System.nanoTime() calls, one map lookup and one histogram update.
+ * Commands that load a page are followed by one script reading its load timings (see PageLoadMetrics).
+ */
+public class CommandTimingDecorator extends WebDriverDecorator<WebDriver> {
+
+    // TargetLocator calls that don't change the page the session is looking at
+    private static final Set<String> NON_SWITCHING_CALLS = new HashSet<>(Arrays.asList("activeElement", "alert"));
+
+    private final Function<String, LatencyHistogram> histograms = RunMetrics::histogram;
+    private final AtomicLong pageGeneration = new AtomicLong();
+    private final Map<Method, LatencyHistogram> driverCommands = new ConcurrentHashMap<>();
+    private final Map<Method, LatencyHistogram> elementCommands = new ConcurrentHashMap<>();
+
+
+    @Override
+    public Object call(Decorated<?> target, Method method, Object[] args) throws Throwable {
+        long start = System.nanoTime();
+        Object result;
+        try {
+            result = super.call(target, method, args);
+        } finally {
+            record(method, target.getOriginal() instanceof WebElement, start);
+            if (changesPage(method)) {
+                pageGeneration.incrementAndGet();
+            }
+        }
+        if (loadsPage(method)) {
+            // outside the command's own time
+            PageLoadMetrics.collect(getDecoratedDriver().getOriginal());
+        }
+        return result;
+    }
+
+    /*
+     * Changes every time the session loads a page or switches window/frame.
+     */
+    public long pageGeneration() {
+        return pageGeneration.get();
+    }
+
+    /*
+     * Commands after which elements found before are no longer valid:
+     * get, navigation (to/back/forward/refresh) and window/frame switches.
+     */
+    private static boolean changesPage(Method method) {
+        Class<?> declaringClass = method.getDeclaringClass();
+        return declaringClass == WebDriver.Navigation.class
+                || (declaringClass == WebDriver.TargetLocator.class && !NON_SWITCHING_CALLS.contains(method.getName()))
+                || (declaringClass == WebDriver.class && method.getName().equals("get"));
+    }
+
+    /*
+     * Commands that load a document: get and navigation (to/back/forward/refresh).
+     */
+    private static boolean loadsPage(Method method) {
+        return method.getDeclaringClass() == WebDriver.Navigation.class
+                || (method.getDeclaringClass() == WebDriver.class && method.getName().equals("get"));
+    }
+
+    private void record(Method method, boolean onElement, long start) {
+        Map<Method, LatencyHistogram> commands = onElement ? elementCommands : driverCommands;
+        LatencyHistogram histogram = commands.get(method);
+        if (histogram == null) {
+            histogram = commands.computeIfAbsent(method, m -> histograms.apply(name(m, onElement)));
+        }
+        histogram.record(System.nanoTime() - start);
+    }
+
+    private static String name(Method method, boolean onElement) {
+        Class<?> declaringClass = method.getDeclaringClass();
+        String owner = onElement ? "WebElement"
+                : declaringClass.isInterface() && !declaringClass.getSimpleName().equals("SearchContext")
+                ? declaringClass.getSimpleName()
+                : "WebDriver";
+        return "command." + owner + "." + method.getName();
+    }
+}
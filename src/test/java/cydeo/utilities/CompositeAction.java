@@ -0,0 +1,296 @@
+package cydeo.utilities;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.JavascriptException;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.Keys;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.support.ui.ExpectedConditions;
+import org.openqa.selenium.support.ui.WebDriverWait;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/*
+ * A declared sequence of actions on one element plus the condition that ends it, run inside the browser
+ * with a single executeAsyncScript call instead of one WebDriver command per action and poll:
+ *
+ *   BrowserUtils.compose(etsy.searchBox).focus().setValue("wooden spoon").submit().waitForUrlContains("search").perform();
+ *
+ * The script checks first that every action can be done in the page (element attached and visible,
+ * editable for setValue, inside a form for submit). If not, nothing has been done yet and the whole
+ * sequence is performed with native commands instead (click, clear + sendKeys, ENTER, explicit waits).
+ * When the submit navigates away, the script can't report back; the navigation counts as submitted and
+ * the wait conditions are checked with one PageReadiness wait on the new page.
+ *
+ * The wait must stay below the driver's script timeout (30 seconds by default).
+ */
+public class CompositeAction {
+
+    private static final String SCRIPT =
+            "var steps = arguments[0], el = arguments[1], timeoutMs = arguments[2], done = arguments[arguments.length - 1];" +
+            "var start = Date.now(), finished = false;" +
+            "function finish(status, reason) {" +
+            "  if (finished) { return; }" +
+            "  finished = true;" +
+            "  window.removeEventListener('pagehide', onHide);" +
+            "  done({ status: status, reason: reason || null, url: location.href, elapsedMs: Date.now() - start });" +
+            "}" +
+            "function onHide() { finish('navigated'); }" +
+            "function visible(e) {" +
+            "  var rect = e.getBoundingClientRect(), style = window.getComputedStyle(e);" +
+            "  return rect.width > 0 && rect.height > 0 && style.visibility !== 'hidden' && style.display !== 'none';" +
+            "}" +
+            "var attached = el && ('isConnected' in el ? el.isConnected : document.documentElement.contains(el));" +
+            "if (!attached) { return finish('unsupported', 'element is not attached to the page'); }" +
+            "for (var i = 0; i < steps.length; i++) {" +
+            "  var op = steps[i].op;" +
+            "  if ((op === 'focus' || op === 'setValue') && !visible(el)) { return finish('unsupported', 'element is not visible'); }" +
+            "  if (op === 'setValue' && (!('value' in el) || el.disabled || el.readOnly)) { return finish('unsupported', 'element is not editable'); }" +
+            "  if (op === 'submit' && !(el.form || el.tagName === 'FORM')) { return finish('unsupported', 'element is not in a form'); }" +
+            "}" +
+            "var conditions = [];" +
+            "for (var j = 0; j < steps.length; j++) {" +
+            "  var step = steps[j];" +
+            "  if (step.op === 'focus') {" +
+            "    el.focus();" +
+            "  } else if (step.op === 'setValue') {" +
+            // the prototype's setter, so frameworks that track the value (React...) see the change
+            "    var proto = el.tagName === 'TEXTAREA' ? HTMLTextAreaElement.prototype : HTMLInputElement.prototype;" +
+            "    var setter = Object.getOwnPropertyDescriptor(proto, 'value');" +
+            "    if (setter && setter.set && el instanceof proto.constructor) { setter.set.call(el, step.value); } else { el.value = step.value; }" +
+            "    el.dispatchEvent(new Event('input', { bubbles: true }));" +
+            "    el.dispatchEvent(new Event('change', { bubbles: true }));" +
+            "  } else if (step.op === 'submit') {" +
+            "    var form = el.tagName === 'FORM' ? el : el.form;" +
+            "    window.addEventListener('pagehide', onHide);" +
+            "    if (form.requestSubmit) { form.requestSubmit(); } else { form.submit(); }" +
+            "  } else {" +
+            "    conditions.push(step);" +
+            "  }" +
+            "}" +
+            "function met() {" +
+            "  return conditions.every(function (c) {" +
+            "    return c.op === 'urlContains' ? location.href.indexOf(c.value) >= 0 : document.querySelector(c.value) !== null;" +
+            "  });" +
+            "}" +
+            "(function poll() {" +
+            "  if (finished) { return; }" +
+            "  if (met()) { return finish('done'); }" +
+            "  if (Date.now() - start >= timeoutMs) { return finish('timeout', 'conditions not met'); }" +
+            "  setTimeout(poll, 50);" +
+            "})();";
+
+    private final WebDriver driver;
+    private final WebElement element;
+    private final List<Map<String, Object>> steps = new ArrayList<>();
+    private Duration timeout = PageReadiness.DEFAULT_TIMEOUT;
+
+    private CompositeAction(WebDriver driver, WebElement element) {
+        this.driver = driver;
+        this.element = element;
+    }
+
+    public static CompositeAction on(WebDriver driver, WebElement element) {
+        return new CompositeAction(driver, element);
+    }
+
+    public CompositeAction focus() {
+        return step("focus", null);
+    }
+
+    /*
+     * Replaces the element's value, firing input and change events.
+     */
+    public CompositeAction setValue(String value) {
+        return step("setValue", value);
+    }
+
+    /*
+     * Submits the element's form, like pressing ENTER in the field.
+     */
+    public CompositeAction submit() {
+        return step("submit", null);
+    }
+
+    public CompositeAction waitForUrlContains(String expectedInURL) {
+        return step("urlContains", expectedInURL);
+    }
+
+    public CompositeAction waitForSelector(String cssSelector) {
+        return step("selector", cssSelector);
+    }
+
+    /*
+     * Upper bound of the wait conditions, readiness.timeout by default.
+     */
+    public CompositeAction within(Duration timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    private CompositeAction step(String op, String value) {
+        Map<String, Object> step = new LinkedHashMap<>();
+        step.put("op", op);
+        // no null entries: HtmlUnit can't pass them into a script
+        if (value != null) {
+            step.put("value", value);
+        }
+        steps.add(step);
+        return this;
+    }
+
+    /*
+     * Runs the sequence, in the page if possible, and reports how it went.
+     * Only failures of the native fallback are thrown; a wait that runs out is reported as not completed.
+     */
+    @SuppressWarnings("unchecked")
+    public Result perform() {
+        long start = System.nanoTime();
+        Result result;
+        try {
+            Map<String, Object> outcome = (Map<String, Object>) ((JavascriptExecutor) driver)
+                    .executeAsyncScript(SCRIPT, steps, element, timeout.toMillis());
+            String status = String.valueOf(outcome.get("status"));
+            if ("unsupported".equals(status)) {
+                result = performNatively(start, String.valueOf(outcome.get("reason")));
+            } else if ("navigated".equals(status)) {
+                result = afterNavigation(start);
+            } else {
+                RunMetrics.increment("composite.inPage");
+                result = new Result("done".equals(status), false, false, String.valueOf(outcome.get("url")),
+                        elapsedMs(start), (String) outcome.get("reason"));
+            }
+        } catch (WebDriverException e) {
+            // browsers report the unload as a script error, HtmlUnit as a plain WebDriverException
+            if (String.valueOf(e.getMessage()).toLowerCase(Locale.ROOT).contains("unload")) {
+                result = afterNavigation(start);
+            } else if (e instanceof JavascriptException) {
+                result = performNatively(start, "script failed: " + e.getRawMessage());
+            } else {
+                throw e;
+            }
+        }
+        RunMetrics.recordNanos("composite.perform", System.nanoTime() - start);
+        return result;
+    }
+
+    /*
+     * The submit replaced the page: wait once for the new page and check the conditions there.
+     */
+    private Result afterNavigation(long start) {
+        RunMetrics.increment("composite.navigated");
+        boolean completed = awaitConditions(start);
+        return new Result(completed, true, false, driver.getCurrentUrl(), elapsedMs(start), completed ? null : "conditions not met");
+    }
+
+    private Result performNatively(long start, String reason) {
+        RunMetrics.increment("composite.native");
+        for (Map<String, Object> step : steps) {
+            String op = (String) step.get("op");
+            if (op.equals("focus")) {
+                element.click();
+            } else if (op.equals("setValue")) {
+                element.clear();
+                element.sendKeys((String) step.get("value"));
+            } else if (op.equals("submit")) {
+                element.sendKeys(Keys.ENTER);
+            }
+        }
+        boolean completed = awaitConditions(start);
+        return new Result(completed, false, true, driver.getCurrentUrl(), elapsedMs(start), reason);
+    }
+
+    private boolean awaitConditions(long start) {
+        List<String> urlParts = new ArrayList<>();
+        List<String> selectors = new ArrayList<>();
+        for (Map<String, Object> step : steps) {
+            if ("urlContains".equals(step.get("op"))) {
+                urlParts.add((String) step.get("value"));
+            } else if ("selector".equals(step.get("op"))) {
+                selectors.add((String) step.get("value"));
+            }
+        }
+        boolean ready = PageReadiness.awaitReady(driver, remaining(start), url -> urlParts.stream().allMatch(url::contains));
+        try {
+            for (String selector : selectors) {
+                new WebDriverWait(driver, remaining(start)).until(ExpectedConditions.presenceOfElementLocated(By.cssSelector(selector)));
+            }
+        } catch (TimeoutException e) {
+            return false;
+        }
+        return ready;
+    }
+
+    private Duration remaining(long start) {
+        Duration left = timeout.minusNanos(System.nanoTime() - start);
+        return left.isNegative() ? Duration.ZERO : left;
+    }
+
+    private static long elapsedMs(long start) {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    /*
+     * How a composite action went: whether its wait conditions were met, whether the page navigated,
+     * whether native commands had to be used (and why), the URL at the end and the time it took.
+     */
+    public static class Result {
+        private final boolean completed;
+        private final boolean navigated;
+        private final boolean nativeFallback;
+        private final String url;
+        private final long elapsedMs;
+        private final String reason;
+
+        Result(boolean completed, boolean navigated, boolean nativeFallback, String url, long elapsedMs, String reason) {
+            this.completed = completed;
+            this.navigated = navigated;
+            this.nativeFallback = nativeFallback;
+            this.url = url;
+            this.elapsedMs = elapsedMs;
+            this.reason = reason;
+        }
+
+        public boolean isCompleted() {
+            return completed;
+        }
+
+        public boolean isNavigated() {
+            return navigated;
+        }
+
+        public boolean isNativeFallback() {
+            return nativeFallback;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public long getElapsedMs() {
+            return elapsedMs;
+        }
+
+        /*
+         * Why native commands were used or the conditions weren't met, null otherwise.
+         */
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return (completed ? "completed" : "not completed") + (navigated ? ", navigated" : "")
+                    + (nativeFallback ? ", native fallback" : ", in page") + " in " + elapsedMs + " ms at " + url
+                    + (reason == null ? "" : " (" + reason + ")");
+        }
+    }
+}
@@ -25,4 +25,24 @@ public class ConfigurationReader {
 		return configFile.getProperty(keyName);
 	}
 
+	/*
+	 * Reads the key from system properties first (so it can be passed with -Dkey=value),
+	 * then from configuration.properties, and falls back to the given default.
+	 */
+	public static String getProperty(String keyName, String defaultValue) {
+		String value = System.getProperty(keyName);
+		if (value == null) {
+			value = configFile.getProperty(keyName);
+		}
+		return (value == null || value.trim().isEmpty()) ? defaultValue : value.trim();
+	}
+
+	public static int getIntProperty(String keyName, int defaultValue) {
+		return Integer.parseInt(getProperty(keyName, String.valueOf(defaultValue)));
+	}
+
+	public static boolean getBooleanProperty(String keyName, boolean defaultValue) {
+		return Boolean.parseBoolean(getProperty(keyName, String.valueOf(defaultValue)));
+	}
+
 }
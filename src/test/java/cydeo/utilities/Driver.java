@@ -1,138 +1,281 @@
 package cydeo.utilities;
 
+import org.htmlunit.BrowserVersion;
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.chrome.ChromeDriver;
+import org.openqa.selenium.chrome.ChromeDriverService;
 import org.openqa.selenium.chrome.ChromeOptions;
 import org.openqa.selenium.firefox.FirefoxDriver;
 import org.openqa.selenium.firefox.FirefoxDriverLogLevel;
 import org.openqa.selenium.firefox.FirefoxOptions;
-import org.openqa.selenium.remote.RemoteWebDriver;
+import org.openqa.selenium.firefox.GeckoDriverService;
+import org.openqa.selenium.htmlunit.HtmlUnitDriver;
+import org.openqa.selenium.remote.DesiredCapabilities;
 
-import java.net.URL;
 import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Driver {
 
     // Private constructor to prevent instantiation
     private Driver() {}
 
-    // Thread-safe driver pool
-    private static InheritableThreadLocal<WebDriver> driverPool = new InheritableThreadLocal<>();
+    // Warm sessions shared between scenarios, sized by pool.size and recycled after pool.maxUses leases.
+    // Every session is wrapped so that each WebDriver command's latency lands in the run metrics
+    // With pool.enabled=false every session is quit on release, like before pooling existed
+    private static final boolean poolEnabled = ConfigurationReader.getBooleanProperty("pool.enabled", true);
+
+    private static final SessionPool sessionPool = new SessionPool(
+            poolEnabled ? ConfigurationReader.getIntProperty("pool.size", defaultPoolSize()) : Integer.MAX_VALUE,
+            poolEnabled ? ConfigurationReader.getIntProperty("pool.maxUses", 20) : 1,
+            Driver::createDriver,
+            driver -> new CommandTimingDecorator().decorate(driver));
+
+    /*
+     * One session per scenario worker: parallel.workers with the fixed strategy, otherwise cores * parallel.factor.
+     */
+    private static int defaultPoolSize() {
+        if ("fixed".equals(ConfigurationReader.getProperty("parallel.strategy", "dynamic"))) {
+            return ConfigurationReader.getIntProperty("parallel.workers", Runtime.getRuntime().availableProcessors());
+        }
+        double factor = Double.parseDouble(ConfigurationReader.getProperty("parallel.factor", "1.0"));
+        return Math.max(1, (int) Math.ceil(Runtime.getRuntime().availableProcessors() * factor));
+    }
+
+    // Spreads remote sessions over the Selenium Grid hubs listed in grid.hubs; created by the first remote-* session,
+    // so local runs work without any hub configured
+    private static HubRouter hubRouter;
+
+    // Sessions keyed by scenario id; any thread working for the scenario shares its session
+    private static final SessionRegistry sessionRegistry = new SessionRegistry(sessionPool,
+            ConfigurationReader.getIntProperty("session.leakTimeout", 600));
+
+    // Scenarios tagged @browserless, which run on the in-JVM HTML engine whatever BROWSER is
+    private static final Set<String> browserlessScenarios = ConcurrentHashMap.newKeySet();
 
     /*
-     * Returns the same driver instance once we call it.
-     * If an instance doesn't exist, it will create one.
+     * Returns the same driver instance for the current scenario once we call it.
+     * If an instance doesn't exist, it will lease one from the session pool.
      */
     public static WebDriver getDriver() {
+        return sessionRegistry.acquire(ScenarioScope.currentId(), browserType());
+    }
+
+    /*
+     * Tells whether the current scenario already holds a driver, without launching one.
+     */
+    public static boolean hasDriver() {
+        return sessionRegistry.get(ScenarioScope.currentId()) != null;
+    }
+
+    /*
+     * Lets the current scenario run on the in-JVM HTML engine (BROWSER=htmlunit) instead of BROWSER,
+     * unless browserless.enabled=false. Called for @browserless scenarios before their driver is acquired.
+     */
+    public static void allowBrowserless() {
+        if (ConfigurationReader.getBooleanProperty("browserless.enabled", true)) {
+            browserlessScenarios.add(ScenarioScope.currentId());
+        }
+    }
 
-        if(driverPool.get() == null){
-
-            // Read the browserType from system property or configuration
-            String browserType = (System.getProperty("BROWSER") == null)
-                    ? ConfigurationReader.getProperty("browser")
-                    : System.getProperty("BROWSER");
-            System.out.println("Browser: " + browserType);
-
-            switch (browserType){
-                case "remote-chrome":
-                    try {
-                        // Assign your grid server address
-                        String gridAddress = "100.24.34.37";
-                        URL url = new URL("http://" + gridAddress + ":4444/wd/hub");
-                        ChromeOptions chromeOptions = new ChromeOptions();
-                        chromeOptions.addArguments("--start-maximized");
-                        driverPool.set(new RemoteWebDriver(url, chromeOptions));
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                    break;
-
-                case "remote-firefox":
-                    try {
-                        // Assign your grid server address
-                        String gridAddress = "34.239.154.115";
-                        URL url = new URL("http://" + gridAddress + ":4444/wd/hub");
-                        FirefoxOptions remoteFirefoxOptions = new FirefoxOptions();
-                        remoteFirefoxOptions.addArguments("--start-maximized");
-                        driverPool.set(new RemoteWebDriver(url, remoteFirefoxOptions));
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                    break;
-
-                case "chrome":
-                    ChromeOptions chromeOptions = new ChromeOptions();
-
-                    // Enable headless mode with better stability
-                    chromeOptions.addArguments("--headless=new");
-
-                    // Optimize performance and avoid sandbox issues
-                    chromeOptions.addArguments("--disable-gpu");
-                    chromeOptions.addArguments("--no-sandbox");
-                    chromeOptions.addArguments("--disable-dev-shm-usage");
-
-                    // Ensure proper screen rendering in headless mode
-                    chromeOptions.addArguments("--window-size=1920,1080");
-                    chromeOptions.addArguments("--force-device-scale-factor=1");
-                    chromeOptions.addArguments("--disable-blink-features=AutomationControlled");
-
-                    // Set the ChromeDriver with configured options
-                    driverPool.set(new ChromeDriver(chromeOptions));
-
-                    // Set timeouts and ensure elements are visible before interaction
-                    driverPool.get().manage().timeouts().implicitlyWait(Duration.ofSeconds(10));
-                    driverPool.get().manage().timeouts().pageLoadTimeout(Duration.ofSeconds(30));
-                    driverPool.get().manage().timeouts().scriptTimeout(Duration.ofSeconds(30));
-
-                    break;
-
-                case "firefox":
-                    // For headless environments like Jenkins, run Firefox in headless mode
-                    System.setProperty("SELENIUM_MANAGER_DISABLE", "true");
-
-                    // Specify the path to the manually installed GeckoDriver
-                    System.setProperty("webdriver.gecko.driver", "/usr/local/bin/geckodriver");
-
-                    // Initialize Firefox options
-                    FirefoxOptions firefoxOptions = new FirefoxOptions();
-                    // Set the Firefox binary location (ensure Firefox is installed via the package manager)
-                    firefoxOptions.setBinary("/usr/bin/firefox");
-
-                    // Set log level to TRACE for detailed logs
-                    firefoxOptions.setLogLevel(FirefoxDriverLogLevel.TRACE);
-
-                    // Run Firefox in headless mode to prevent display issues on CI servers
-                    firefoxOptions.addArguments("--headless");
-
-                    // Initialize the Firefox driver
-                    driverPool.set(new FirefoxDriver(firefoxOptions));
-                    // No need to maximize window in headless mode
-                    driverPool.get().manage().timeouts().implicitlyWait(Duration.ofSeconds(10));
-                    break;
-
-                case "headless-chrome":
-                    ChromeOptions headlessOptions = new ChromeOptions();
-                    headlessOptions.addArguments("--headless=new");
-                    driverPool.set(new ChromeDriver(headlessOptions));
-                    driverPool.get().manage().window().maximize();
-                    driverPool.get().manage().timeouts().implicitlyWait(Duration.ofSeconds(10));
-                    break;
-
-                default:
-                    throw new RuntimeException("Browser type is not supported: " + browserType);
+    /*
+     * Starts the sessions the run is expected to need in the background, so that scenarios find them
+     * warm in the pool: one per worker for parallel runs, a single one otherwise, at most pool.size.
+     * Only with prelaunch.enabled=true and the pool enabled.
+     */
+    public static void prelaunch() {
+        if (!poolEnabled || !ConfigurationReader.getBooleanProperty("prelaunch.enabled", false)) {
+            return;
+        }
+        int count = ConfigurationReader.getBooleanProperty("parallel.enabled", false) ? defaultPoolSize() : 1;
+        sessionPool.prelaunch(browserType(), count);
+    }
+
+    /*
+     * Quits the sessions still idle in the pool once no scenario can lease them anymore.
+     */
+    public static void shutdownPool() {
+        sessionPool.shutdown();
+        BrowserContexts.shutdown();
+        EmbeddedGrid.stop();
+        synchronized (Driver.class) {
+            if (hubRouter != null) {
+                hubRouter.close();
+                hubRouter = null;
             }
         }
+    }
 
-        return driverPool.get();
+    private static synchronized HubRouter hubRouter() {
+        if (hubRouter == null) {
+            hubRouter = HubRouter.fromConfiguration();
+        }
+        return hubRouter;
     }
 
     /*
-     * Closes the driver instance and removes it from the thread-local storage.
+     * Number of sessions currently held by scenarios.
      */
-    public static void closeDriver(){
-        if (driverPool.get() != null){
-            driverPool.get().quit();
-            driverPool.remove();
+    public static int liveSessions() {
+        return sessionRegistry.liveSessions();
+    }
+
+    /*
+     * Read the browserType from system property or configuration
+     */
+    private static String browserType() {
+        if (!browserlessScenarios.isEmpty() && browserlessScenarios.contains(ScenarioScope.currentId())) {
+            return "htmlunit";
         }
+        return (System.getProperty("BROWSER") == null)
+                ? ConfigurationReader.getProperty("browser")
+                : System.getProperty("BROWSER");
+    }
+
+    /*
+     * Launches a brand-new browser session of the given type.
+     */
+    private static WebDriver createDriver(String browserType) {
+        System.out.println("Browser: " + browserType);
+        WebDriver driver = null;
+
+        switch (browserType){
+            case "remote-chrome":
+                // The hub is picked by the router from grid.hubs, based on free chrome slots
+                ChromeOptions remoteChromeOptions = new ChromeOptions();
+                remoteChromeOptions.addArguments("--start-maximized");
+                driver = hubRouter().createSession(remoteChromeOptions);
+                break;
+
+            case "remote-firefox":
+                // The hub is picked by the router from grid.hubs, based on free firefox slots
+                FirefoxOptions remoteFirefoxOptions = new FirefoxOptions();
+                remoteFirefoxOptions.addArguments("--start-maximized");
+                driver = hubRouter().createSession(remoteFirefoxOptions);
+                break;
+
+            case "chrome":
+                ChromeOptions chromeOptions = new ChromeOptions();
+
+                // Enable headless mode with better stability
+                chromeOptions.addArguments("--headless=new");
+
+                // Optimize performance and avoid sandbox issues
+                chromeOptions.addArguments("--disable-gpu");
+                chromeOptions.addArguments("--no-sandbox");
+                chromeOptions.addArguments("--disable-dev-shm-usage");
+
+                // Ensure proper screen rendering in headless mode
+                chromeOptions.addArguments("--window-size=1920,1080");
+                chromeOptions.addArguments("--force-device-scale-factor=1");
+                chromeOptions.addArguments("--disable-blink-features=AutomationControlled");
+
+                // Record/replay proxy (replay.mode), when enabled
+                RecordReplayProxy.configure(chromeOptions);
+
+                // Set the ChromeDriver with configured options, on its own service so its processes can be tracked
+                DriverBinaries.chromeDriver(chromeOptions);
+                ChromeDriverService chromeService = ChromeDriverService.createDefaultService();
+                driver = ProcessReaper.launch(chromeService, () -> new ChromeDriver(chromeService, chromeOptions), browserType);
+
+                // Set timeouts and ensure elements are visible before interaction
+                driver.manage().timeouts().implicitlyWait(Duration.ofSeconds(10));
+                driver.manage().timeouts().pageLoadTimeout(Duration.ofSeconds(30));
+                driver.manage().timeouts().scriptTimeout(Duration.ofSeconds(30));
+
+                break;
+
+            case "firefox":
+                // Manually installed GeckoDriver (geckodriver.path), resolved once per JVM
+                DriverBinaries.geckoDriver();
+
+                // Initialize Firefox options
+                FirefoxOptions firefoxOptions = new FirefoxOptions();
+                // Set the Firefox binary location (ensure Firefox is installed via the package manager)
+                firefoxOptions.setBinary("/usr/bin/firefox");
+
+                // Set log level to TRACE for detailed logs
+                firefoxOptions.setLogLevel(FirefoxDriverLogLevel.TRACE);
+
+                // Run Firefox in headless mode to prevent display issues on CI servers
+                firefoxOptions.addArguments("--headless");
+
+                // Request blocking profile (block.*), the part that has to be set before launch
+                RequestBlocker.configure(firefoxOptions);
+
+                // Record/replay proxy (replay.mode), when enabled
+                RecordReplayProxy.configure(firefoxOptions);
+
+                // Initialize the Firefox driver, on its own service so its processes can be tracked
+                GeckoDriverService geckoService = GeckoDriverService.createDefaultService();
+                driver = ProcessReaper.launch(geckoService, () -> new FirefoxDriver(geckoService, firefoxOptions), browserType);
+                // No need to maximize window in headless mode
+                driver.manage().timeouts().implicitlyWait(Duration.ofSeconds(10));
+                break;
+
+            case "headless-chrome":
+                ChromeOptions headlessOptions = new ChromeOptions();
+                headlessOptions.addArguments("--headless=new");
+                RecordReplayProxy.configure(headlessOptions);
+                DriverBinaries.chromeDriver(headlessOptions);
+                ChromeDriverService headlessService = ChromeDriverService.createDefaultService();
+                driver = ProcessReaper.launch(headlessService, () -> new ChromeDriver(headlessService, headlessOptions), browserType);
+                driver.manage().window().maximize();
+                driver.manage().timeouts().implicitlyWait(Duration.ofSeconds(10));
+                break;
+
+            case "chrome-contexts":
+                // One headless Chrome per context.perBrowser scenarios, each scenario in its own browser context
+                driver = BrowserContexts.newSession();
+                break;
+
+            case "htmlunit":
+                // In-JVM HTML engine with JavaScript, no browser process; what it can't do moves the session
+                // to a real browser of type browserless.fallback
+                DesiredCapabilities htmlUnitCapabilities = new DesiredCapabilities();
+                htmlUnitCapabilities.setBrowserName("htmlunit");
+                htmlUnitCapabilities.setVersion(BrowserVersion.CHROME.getNickname());
+                htmlUnitCapabilities.setCapability(HtmlUnitDriver.JAVASCRIPT_ENABLED, true);
+                RecordReplayProxy.configure(htmlUnitCapabilities);
+                String fallbackType = ConfigurationReader.getProperty("browserless.fallback", "headless-chrome");
+                driver = new BrowserlessDriver(new HtmlUnitDriver(htmlUnitCapabilities), fallbackType, () -> createDriver(fallbackType));
+                driver.manage().timeouts().implicitlyWait(Duration.ofSeconds(10));
+                break;
+
+            case "embedded-grid":
+                // In-process grid on localhost, slots sized from cores and memory (grid.embedded.*)
+                if ("firefox".equals(ConfigurationReader.getProperty("grid.embedded.browser", "chrome"))) {
+                    FirefoxOptions gridFirefoxOptions = new FirefoxOptions();
+                    gridFirefoxOptions.addArguments("--headless");
+                    RecordReplayProxy.configure(gridFirefoxOptions);
+                    driver = EmbeddedGrid.get().createSession(gridFirefoxOptions);
+                } else {
+                    ChromeOptions gridChromeOptions = new ChromeOptions();
+                    gridChromeOptions.addArguments("--headless=new", "--disable-gpu", "--no-sandbox",
+                            "--disable-dev-shm-usage", "--window-size=1920,1080");
+                    RecordReplayProxy.configure(gridChromeOptions);
+                    driver = EmbeddedGrid.get().createSession(gridChromeOptions);
+                }
+                driver.manage().timeouts().implicitlyWait(Duration.ofSeconds(10));
+                break;
+
+            default:
+                throw new RuntimeException("Browser type is not supported: " + browserType);
+        }
+
+        // Drop the requests of the blocking profile (block.*) for the whole life of the session
+        RequestBlocker.install(driver);
+
+        return driver;
+    }
+
+    /*
+     * Returns the current scenario's driver to the session pool.
+     * The pool decides whether the browser is reset for the next scenario or quit.
+     */
+    public static void closeDriver(){
+        sessionRegistry.release(ScenarioScope.currentId());
+        browserlessScenarios.remove(ScenarioScope.currentId());
     }
 }
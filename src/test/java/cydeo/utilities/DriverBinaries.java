@@ -0,0 +1,86 @@
+package cydeo.utilities;
+
+import org.openqa.selenium.chrome.ChromeOptions;
+import org.openqa.selenium.manager.SeleniumManager;
+import org.openqa.selenium.manager.SeleniumManagerOutput;
+
+/*
+ * Resolves the local driver executables once per JVM instead of once per browser launch.
+ *
+ * Without a webdriver.chrome.driver property every new ChromeDriver asks Selenium Manager to look the
+ * driver up again. Here Selenium Manager is asked once, on first use, for the chromedriver matching the
+ * installed Chrome (Chrome for Testing drivers included), and the path it returns is kept in that
+ * system property for every later session. Since those sessions no longer ask Selenium Manager, the browser
+ * it returned is kept too (a downloaded Chrome for Testing on agents without Chrome) and set as the binary
+ * of their options by chromeDriver(options). Firefox uses the manually installed geckodriver (geckodriver.path).
+ */
+public final class DriverBinaries {
+
+    private static volatile boolean chromeResolved;
+    private static volatile boolean geckoResolved;
+    private static volatile String chromeBinary;
+
+    private DriverBinaries() {}
+
+    /*
+     * Resolves chromedriver and makes the options use the browser Selenium Manager resolved with it, if any.
+     */
+    public static void chromeDriver(ChromeOptions options) {
+        chromeDriver();
+        if (chromeBinary != null) {
+            options.setBinary(chromeBinary);
+        }
+    }
+
+    /*
+     * Browser resolved together with chromedriver, null when chromedriver was not resolved here or came
+     * without a browser path.
+     */
+    public static String chromeBinary() {
+        chromeDriver();
+        return chromeBinary;
+    }
+
+    public static void chromeDriver() {
+        if (chromeResolved) {
+            return;
+        }
+        synchronized (DriverBinaries.class) {
+            if (chromeResolved) {
+                return;
+            }
+            long start = System.nanoTime();
+            if (System.getProperty("webdriver.chrome.driver") == null) {
+                try {
+                    SeleniumManagerOutput.Result result = SeleniumManager.getInstance().getDriverPath(new ChromeOptions(), false);
+                    if (result.getDriverPath() != null && !result.getDriverPath().isEmpty()) {
+                        System.setProperty("webdriver.chrome.driver", result.getDriverPath());
+                        if (result.getBrowserPath() != null && !result.getBrowserPath().isEmpty()) {
+                            chromeBinary = result.getBrowserPath();
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    // Selenium Manager will look it up for each session, as before
+                    System.out.println("Could not resolve chromedriver with Selenium Manager: " + e.getMessage());
+                }
+            }
+            RunMetrics.recordNanos("driverBinaries.resolve.chrome", System.nanoTime() - start);
+            chromeResolved = true;
+        }
+    }
+
+    public static void geckoDriver() {
+        if (geckoResolved) {
+            return;
+        }
+        synchronized (DriverBinaries.class) {
+            if (geckoResolved) {
+                return;
+            }
+            // For headless environments like Jenkins, GeckoDriver is installed manually
+            System.setProperty("SELENIUM_MANAGER_DISABLE", "true");
+            System.setProperty("webdriver.gecko.driver", ConfigurationReader.getProperty("geckodriver.path", "/usr/local/bin/geckodriver"));
+            geckoResolved = true;
+        }
+    }
+}
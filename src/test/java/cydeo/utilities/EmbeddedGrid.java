@@ -0,0 +1,261 @@
+package cydeo.utilities;
+
+import org.openqa.selenium.Capabilities;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.grid.commands.Standalone;
+import org.openqa.selenium.grid.config.MapConfig;
+import org.openqa.selenium.grid.server.Server;
+import org.openqa.selenium.json.Json;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * In-process Selenium Grid standalone (hub and node in this JVM) for BROWSER=embedded-grid.
+ *
+ * The grid listens on localhost only and its node gets as many slots as the agent can run:
+ * cores * grid.embedded.slotsPerCore, capped by available memory / grid.embedded.memoryPerSlotMb,
+ * unless grid.embedded.slots fixes the number. All slots are for grid.embedded.browser (chrome or firefox).
+ * Sessions are requested through HubRouter like any remote hub, so the grid queues requests
+ * when every slot is busy and reuses the slots as sessions end.
+ *
+ * A sampler polls the grid every grid.embedded.sampleMs for the run metrics: grid.embedded.slots,
+ * grid.embedded.slotUtilization (average busy share of the slots), grid.embedded.peakSessions and
+ * grid.embedded.peakQueue. Session requests are timed as grid.embedded.sessionStart.free or .queued,
+ * depending on whether a slot was free when they were sent; grid.embedded.queueWaitMs is the difference
+ * of their medians, i.e. the estimated time a request waits in the queue.
+ */
+public class EmbeddedGrid {
+
+    private static EmbeddedGrid instance;
+
+    private final Server<?> server;
+    private final URI uri;
+    private final int slots;
+    private final HubRouter router;
+    private final HttpClient http = HttpClient.newHttpClient();
+    private final ScheduledExecutorService sampler;
+
+    private volatile int busySlots;
+    private volatile int queued;
+    private double utilizationSum;
+    private long samples;
+
+    private EmbeddedGrid(Server<?> server, int slots) {
+        this.server = server;
+        this.uri = URI.create(server.getUrl().toString());
+        this.slots = slots;
+        this.router = new HubRouter(Collections.singletonList(uri),
+                Duration.ofMillis(ConfigurationReader.getIntProperty("grid.statusTimeout", 2000)),
+                Duration.ZERO,
+                ConfigurationReader.getIntProperty("grid.sessionAttempts", 2),
+                GridHttpClientFactory.fromConfiguration());
+        RunMetrics.gauge("grid.embedded.slots", slots);
+
+        sampler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "embedded-grid-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = ConfigurationReader.getIntProperty("grid.embedded.sampleMs", 1000);
+        sampler.scheduleAtFixedRate(this::sample, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     * The grid of this run, started on first use.
+     */
+    public static synchronized EmbeddedGrid get() {
+        if (instance == null) {
+            instance = start();
+        }
+        return instance;
+    }
+
+    /*
+     * Stops the grid if it was started, once no session is left.
+     */
+    public static synchronized void stop() {
+        if (instance != null) {
+            instance.shutdown();
+            instance = null;
+        }
+    }
+
+    /*
+     * Requests a session from the grid, queueing in the grid while all slots are busy.
+     */
+    public WebDriver createSession(Capabilities capabilities) {
+        boolean slotFree = busySlots < slots && queued == 0;
+        long start = System.nanoTime();
+        WebDriver driver = router.createSession(capabilities);
+        RunMetrics.recordNanos("grid.embedded.sessionStart." + (slotFree ? "free" : "queued"), System.nanoTime() - start);
+
+        LatencyHistogram free = RunMetrics.histogram("grid.embedded.sessionStart.free");
+        LatencyHistogram waited = RunMetrics.histogram("grid.embedded.sessionStart.queued");
+        if (free.count() > 0 && waited.count() > 0) {
+            long queueWaitNanos = waited.percentileNanos(50) - free.percentileNanos(50);
+            RunMetrics.gauge("grid.embedded.queueWaitMs", Math.max(0, queueWaitNanos) / 1e6);
+        }
+        return driver;
+    }
+
+    private static EmbeddedGrid start() {
+        String browser = ConfigurationReader.getProperty("grid.embedded.browser", "chrome");
+        int slots = slotCount();
+        int port = ConfigurationReader.getIntProperty("grid.embedded.port", 0);
+
+        Map<String, Object> driverConfiguration = new LinkedHashMap<>();
+        driverConfiguration.put("display-name", browser);
+        driverConfiguration.put("max-sessions", slots);
+        Map<String, Object> stereotype = new LinkedHashMap<>();
+        stereotype.put("browserName", browser);
+        String executable;
+        if (browser.equals("firefox")) {
+            DriverBinaries.geckoDriver();
+            executable = System.getProperty("webdriver.gecko.driver");
+        } else {
+            DriverBinaries.chromeDriver();
+            executable = System.getProperty("webdriver.chrome.driver");
+            // the node merges the stereotype's browser binary into every session it creates
+            String binary = DriverBinaries.chromeBinary();
+            if (binary != null) {
+                stereotype.put("goog:chromeOptions", Collections.singletonMap("binary", binary));
+            }
+        }
+        driverConfiguration.put("stereotype", new Json().toJson(stereotype));
+        if (executable != null) {
+            driverConfiguration.put("webdriver-executable", executable);
+        }
+
+        Map<String, Object> serverSection = new LinkedHashMap<>();
+        serverSection.put("host", "localhost");
+        serverSection.put("port", port == 0 ? freePort() : port);
+        Map<String, Object> nodeSection = new LinkedHashMap<>();
+        nodeSection.put("detect-drivers", false);
+        nodeSection.put("selenium-manager", executable == null);
+        nodeSection.put("max-sessions", slots);
+        nodeSection.put("override-max-sessions", true);
+        nodeSection.put("driver-configuration", Collections.singletonList(driverConfiguration));
+        Map<String, Object> queueSection = new LinkedHashMap<>();
+        // the grid gives up on a queued request before the client's read timeout does
+        queueSection.put("session-request-timeout", ConfigurationReader.getIntProperty("grid.sessionTimeout", 60));
+
+        Map<String, Object> config = new LinkedHashMap<>();
+        config.put("server", serverSection);
+        config.put("node", nodeSection);
+        config.put("sessionqueue", queueSection);
+
+        long start = System.nanoTime();
+        Server<?> server = new Standalone().asServer(new MapConfig(config)).start();
+        RunMetrics.recordNanos("grid.embedded.startup", System.nanoTime() - start);
+        System.out.println("Embedded grid started at " + server.getUrl() + " with " + slots + " " + browser + " slots");
+
+        // the node's drivers are children of this JVM that ProcessReaper doesn't know about
+        ProcessReaper.pauseOrphanReaping();
+        return new EmbeddedGrid(server, slots);
+    }
+
+    /*
+     * Slots the agent can run: per core, capped by memory, or grid.embedded.slots when set.
+     */
+    static int slotCount() {
+        int configured = ConfigurationReader.getIntProperty("grid.embedded.slots", 0);
+        if (configured > 0) {
+            return configured;
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        double perCore = Double.parseDouble(ConfigurationReader.getProperty("grid.embedded.slotsPerCore", "1.0"));
+        int byCpu = Math.max(1, (int) Math.ceil(cores * perCore));
+
+        long availableMb = availableMemoryMb();
+        int memoryPerSlot = ConfigurationReader.getIntProperty("grid.embedded.memoryPerSlotMb", 800);
+        int byMemory = availableMb < 0 ? byCpu : Math.max(1, (int) (availableMb / memoryPerSlot));
+        return Math.min(byCpu, byMemory);
+    }
+
+    /*
+     * MemAvailable from /proc/meminfo, the free physical memory elsewhere, -1 if neither is known.
+     */
+    @SuppressWarnings("deprecation")
+    private static long availableMemoryMb() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/meminfo"))) {
+                if (line.startsWith("MemAvailable:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) / 1024;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // not Linux
+        }
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+                    .getFreePhysicalMemorySize() / (1024 * 1024);
+        }
+        return -1;
+    }
+
+    private static int freePort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new IllegalStateException("No free port for the embedded grid", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void sample() {
+        try {
+            HttpRequest request = HttpRequest.newBuilder(uri.resolve("/graphql"))
+                    .timeout(Duration.ofSeconds(2))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"query\": \"{ grid { totalSlots sessionCount sessionQueueSize } }\"}"))
+                    .build();
+            String body = http.send(request, HttpResponse.BodyHandlers.ofString()).body();
+            Map<String, Object> response = new Json().toType(body, Json.MAP_TYPE);
+            Map<String, Object> grid = (Map<String, Object>) ((Map<String, Object>) response.get("data")).get("grid");
+            int total = ((Number) grid.get("totalSlots")).intValue();
+            busySlots = ((Number) grid.get("sessionCount")).intValue();
+            queued = ((Number) grid.get("sessionQueueSize")).intValue();
+
+            RunMetrics.recordMax("grid.embedded.peakSessions", busySlots);
+            RunMetrics.recordMax("grid.embedded.peakQueue", queued);
+            synchronized (this) {
+                utilizationSum += total == 0 ? 0 : (double) busySlots / total;
+                samples++;
+                RunMetrics.gauge("grid.embedded.slotUtilization", utilizationSum / samples);
+            }
+        } catch (IOException | RuntimeException e) {
+            RunMetrics.increment("grid.embedded.sampleFailures");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void shutdown() {
+        sampler.shutdownNow();
+        sample();
+        router.close();
+        try {
+            server.stop();
+        } catch (RuntimeException e) {
+            System.out.println("Could not stop the embedded grid: " + e.getMessage());
+        }
+        ProcessReaper.resumeOrphanReaping();
+        System.out.println("Embedded grid stopped, average slot utilization "
+                + String.format("%.0f%%", 100 * (samples == 0 ? 0 : utilizationSum / samples)));
+    }
+}
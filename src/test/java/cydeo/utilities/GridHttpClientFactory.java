@@ -0,0 +1,136 @@
+package cydeo.utilities;
+
+import org.openqa.selenium.remote.http.ClientConfig;
+import org.openqa.selenium.remote.http.HttpClient;
+import org.openqa.selenium.remote.http.HttpMethod;
+import org.openqa.selenium.remote.http.HttpRequest;
+import org.openqa.selenium.remote.http.HttpResponse;
+import org.openqa.selenium.remote.http.WebSocket;
+import org.openqa.selenium.remote.http.jdk.JdkHttpClient;
+
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/*
+ * HttpClient.Factory for remote sessions that shares the HTTP clients of a hub between all its sessions,
+ * instead of Selenium's default of a new client (and new connections) per session.
+ *
+ * Per hub there is one client for new session requests, read timeout grid.sessionTimeout since they can
+ * wait in the grid queue, and one for commands, read timeout grid.readTimeout. Both connect with
+ * grid.connectTimeout and keep their connections alive between requests and sessions (idle connections
+ * are closed after grid.keepAliveSeconds). At most grid.maxConnections commands per hub are in flight,
+ * so at most that many command connections are open; callers beyond that wait for a free one.
+ *
+ * Metrics per hub: grid.sessionCreate.<hub> (new session round trips), grid.http.<hub> (network time of
+ * every other command) and grid.connectionWait.<hub> (time spent waiting for a free connection).
+ */
+public class GridHttpClientFactory implements HttpClient.Factory {
+
+    static {
+        // read once by the JDK client when its connection pool is first used
+        if (System.getProperty("jdk.httpclient.keepalive.timeout") == null) {
+            System.setProperty("jdk.httpclient.keepalive.timeout",
+                    String.valueOf(ConfigurationReader.getIntProperty("grid.keepAliveSeconds", 300)));
+        }
+    }
+
+    private final Duration connectTimeout;
+    private final Duration readTimeout;
+    private final Duration sessionTimeout;
+    private final int maxConnections;
+    private final HttpClient.Factory delegate = new JdkHttpClient.Factory();
+    private final Map<String, HubClient> clients = new ConcurrentHashMap<>();
+
+    public GridHttpClientFactory(Duration connectTimeout, Duration readTimeout, Duration sessionTimeout, int maxConnections) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.sessionTimeout = sessionTimeout;
+        this.maxConnections = Math.max(1, maxConnections);
+    }
+
+    public static GridHttpClientFactory fromConfiguration() {
+        return new GridHttpClientFactory(
+                Duration.ofMillis(ConfigurationReader.getIntProperty("grid.connectTimeout", 10000)),
+                Duration.ofSeconds(ConfigurationReader.getIntProperty("grid.readTimeout", 120)),
+                Duration.ofSeconds(ConfigurationReader.getIntProperty("grid.sessionTimeout", 60)),
+                ConfigurationReader.getIntProperty("grid.maxConnections", 8));
+    }
+
+    /*
+     * The shared client of the config's hub; the config's own timeouts are replaced by the factory's.
+     */
+    @Override
+    public HttpClient createClient(ClientConfig config) {
+        URI baseUri = config.baseUri();
+        return clients.computeIfAbsent(baseUri.toString(), key -> new HubClient(baseUri.getAuthority(),
+                delegate.createClient(config.connectionTimeout(connectTimeout).readTimeout(sessionTimeout)),
+                delegate.createClient(config.connectionTimeout(connectTimeout).readTimeout(readTimeout)),
+                new Semaphore(maxConnections, true)));
+    }
+
+    /*
+     * Closes the connections of all hubs, at the end of the run.
+     */
+    public void closeAll() {
+        clients.values().forEach(HubClient::closeConnections);
+        clients.clear();
+    }
+
+    private static class HubClient implements HttpClient {
+        private final String hub;
+        private final HttpClient sessionClient;
+        private final HttpClient commandClient;
+        private final Semaphore connections;
+
+        HubClient(String hub, HttpClient sessionClient, HttpClient commandClient, Semaphore connections) {
+            this.hub = hub;
+            this.sessionClient = sessionClient;
+            this.commandClient = commandClient;
+            this.connections = connections;
+        }
+
+        @Override
+        public HttpResponse execute(HttpRequest request) throws UncheckedIOException {
+            if (request.getMethod() == HttpMethod.POST && request.getUri().replaceAll("/+$", "").endsWith("/session")) {
+                long start = System.nanoTime();
+                try {
+                    return sessionClient.execute(request);
+                } finally {
+                    RunMetrics.recordNanos("grid.sessionCreate." + hub, System.nanoTime() - start);
+                }
+            }
+
+            long waitStart = System.nanoTime();
+            connections.acquireUninterruptibly();
+            long start = System.nanoTime();
+            RunMetrics.recordNanos("grid.connectionWait." + hub, start - waitStart);
+            try {
+                return commandClient.execute(request);
+            } finally {
+                RunMetrics.recordNanos("grid.http." + hub, System.nanoTime() - start);
+                connections.release();
+            }
+        }
+
+        @Override
+        public WebSocket openSocket(HttpRequest request, WebSocket.Listener listener) {
+            return commandClient.openSocket(request, listener);
+        }
+
+        /*
+         * Sessions close their client when they quit; the connections stay open for the next session.
+         */
+        @Override
+        public void close() {
+        }
+
+        void closeConnections() {
+            sessionClient.close();
+            commandClient.close();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package cydeo.utilities;
+
+import io.cucumber.plugin.ConcurrentEventListener;
+import io.cucumber.plugin.event.EventPublisher;
+import io.cucumber.plugin.event.Status;
+import io.cucumber.plugin.event.TestCaseFinished;
+import io.cucumber.plugin.event.TestRunFinished;
+
+/*
+ * Cucumber plugin that folds every scenario's duration and outcome into the scenario history
+ * (schedule.history) when the run finishes, for the scheduler of the next run.
+ */
+public class HistoryPlugin implements ConcurrentEventListener {
+
+    private final ScenarioHistory history = ScenarioHistory.load(ScenarioHistory.defaultFile());
+
+    @Override
+    public void setEventPublisher(EventPublisher publisher) {
+        publisher.registerHandlerFor(TestCaseFinished.class, this::scenarioFinished);
+        publisher.registerHandlerFor(TestRunFinished.class, event -> history.save());
+    }
+
+    private void scenarioFinished(TestCaseFinished event) {
+        Status status = event.getResult().getStatus();
+        if (status == Status.PASSED || status == Status.FAILED) {
+            history.record(ScenarioHistory.key(event.getTestCase().getUri(), event.getTestCase().getLocation().getLine()),
+                    event.getResult().getDuration().toNanos() / 1e9, status == Status.FAILED);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package cydeo.utilities;
+
+import org.openqa.selenium.Capabilities;
+import org.openqa.selenium.SessionNotCreatedException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.json.Json;
+import org.openqa.selenium.remote.HttpCommandExecutor;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.openqa.selenium.remote.http.ClientConfig;
+
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/*
+ * Routes new remote sessions across several Selenium Grid hubs.
+ *
+ * Each hub's /status is polled (and cached for grid.statusTtl milliseconds) to count the free slots per
+ * browser. A new session goes to the healthy hub with the most free slots for the requested browser;
+ * if creating it fails or times out, the next hub is tried right away and the failing hub is
+ * ranked last for the rest of its cool-down, tried only when no other hub could create the session.
+ *
+ * Sessions talk to their hub through the shared clients of GridHttpClientFactory. A session request that
+ * could not connect is retried on the same hub (grid.sessionAttempts) before failing over; one that timed out
+ * is not sent again, it may still be queued on the hub.
+ */
+public class HubRouter {
+
+    private static final Duration COOL_DOWN = Duration.ofSeconds(30);
+
+    private final List<URI> hubs;
+    private final Duration statusTimeout;
+    private final Duration statusTtl;
+    private final int sessionAttempts;
+
+    private final HttpClient statusClient;
+    private final GridHttpClientFactory clientFactory;
+    private final Map<URI, HubStatus> statusCache = new ConcurrentHashMap<>();
+    private final Map<URI, Long> coolingDownUntil = new ConcurrentHashMap<>();
+
+    public HubRouter(List<URI> hubs, Duration statusTimeout, Duration statusTtl, int sessionAttempts, GridHttpClientFactory clientFactory) {
+        if (hubs.isEmpty()) {
+            throw new IllegalArgumentException("At least one grid hub must be configured (grid.hubs)");
+        }
+        this.hubs = hubs;
+        this.statusTimeout = statusTimeout;
+        this.statusTtl = statusTtl;
+        this.sessionAttempts = sessionAttempts;
+        this.clientFactory = clientFactory;
+        this.statusClient = HttpClient.newBuilder().connectTimeout(statusTimeout).build();
+    }
+
+    /*
+     * Builds a router from the comma separated grid.hubs setting, e.g. http://10.0.0.1:4444,http://10.0.0.2:4444
+     */
+    public static HubRouter fromConfiguration() {
+        List<URI> hubs = Arrays.stream(ConfigurationReader.getProperty("grid.hubs", "").split(","))
+                .map(String::trim)
+                .filter(hub -> !hub.isEmpty())
+                .map(URI::create)
+                .collect(Collectors.toList());
+        return new HubRouter(hubs,
+                Duration.ofMillis(ConfigurationReader.getIntProperty("grid.statusTimeout", 2000)),
+                Duration.ofMillis(ConfigurationReader.getIntProperty("grid.statusTtl", 2000)),
+                ConfigurationReader.getIntProperty("grid.sessionAttempts", 2),
+                GridHttpClientFactory.fromConfiguration());
+    }
+
+    /*
+     * Creates a session on the least loaded healthy hub, failing over to the others.
+     */
+    public WebDriver createSession(Capabilities capabilities) {
+        String browserName = capabilities.getBrowserName();
+        SessionNotCreatedException failure = new SessionNotCreatedException(
+                "No grid hub could create a " + browserName + " session, tried " + hubs);
+
+        long start = System.nanoTime();
+        for (URI hub : rankHubs(browserName)) {
+            try {
+                System.out.println("Creating " + browserName + " session on " + hub);
+                ClientConfig config = ClientConfig.defaultConfig().baseUri(hub.resolve("/wd/hub"));
+                WebDriver driver = Retry.named("createSession")
+                        .attempts(sessionAttempts)
+                        .retryOn(HubUnreachableException.class)
+                        .call(() -> requestSession(config, capabilities));
+                RunMetrics.recordNanos("grid.sessionStart", System.nanoTime() - start);
+                RunMetrics.increment("grid.sessions." + hub.getAuthority());
+                return driver;
+            } catch (RuntimeException e) {
+                System.out.println("Hub " + hub + " could not create a session: " + e.getMessage());
+                RunMetrics.increment("grid.failovers." + hub.getAuthority());
+                coolingDownUntil.put(hub, System.currentTimeMillis() + COOL_DOWN.toMillis());
+                statusCache.remove(hub);
+                failure.addSuppressed(e);
+            }
+        }
+        throw failure;
+    }
+
+    /*
+     * Sends one new session request. Only a request that could not even connect is safe to send again: one that
+     * timed out may still be waiting in the hub's queue and would leave an orphaned session on the grid.
+     */
+    private WebDriver requestSession(ClientConfig config, Capabilities capabilities) {
+        try {
+            return new RemoteWebDriver(new HttpCommandExecutor(Collections.emptyMap(), config, clientFactory), capabilities);
+        } catch (RuntimeException e) {
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof ConnectException || cause instanceof HttpConnectTimeoutException) {
+                    throw new HubUnreachableException(config.baseUri(), e);
+                }
+            }
+            throw e;
+        }
+    }
+
+    /*
+     * Closes the kept-alive hub connections, once no session is left.
+     */
+    public void close() {
+        clientFactory.closeAll();
+    }
+
+    /*
+     * Hubs in the order sessions should be tried: healthy hubs with the most free slots for the browser first,
+     * then hubs that are up but report no free slot (the session will queue there), then everything else.
+     */
+    public List<URI> rankHubs(String browserName) {
+        List<CompletableFuture<HubStatus>> polls = new ArrayList<>();
+        for (URI hub : hubs) {
+            polls.add(status(hub));
+        }
+        List<HubStatus> statuses = polls.stream().map(CompletableFuture::join).collect(Collectors.toList());
+
+        long now = System.currentTimeMillis();
+        return statuses.stream()
+                .sorted(Comparator
+                        .comparing((HubStatus status) -> !status.ready || coolingDownUntil.getOrDefault(status.hub, 0L) > now)
+                        .thenComparing(status -> -status.freeSlots(browserName)))
+                .map(status -> status.hub)
+                .collect(Collectors.toList());
+    }
+
+    private CompletableFuture<HubStatus> status(URI hub) {
+        HubStatus cached = statusCache.get(hub);
+        if (cached != null && System.currentTimeMillis() - cached.polledAt < statusTtl.toMillis()) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        HttpRequest request = HttpRequest.newBuilder(hub.resolve("/status")).timeout(statusTimeout).GET().build();
+        return statusClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .thenApply(response -> response.statusCode() == 200
+                        ? HubStatus.parse(hub, response.body())
+                        : HubStatus.down(hub))
+                .exceptionally(e -> HubStatus.down(hub))
+                .thenApply(status -> {
+                    statusCache.put(hub, status);
+                    return status;
+                });
+    }
+
+    /*
+     * The hub could not be connected to, so it never got the session request.
+     */
+    static class HubUnreachableException extends WebDriverException {
+        private static final long serialVersionUID = 1L;
+
+        HubUnreachableException(URI hub, Throwable cause) {
+            super("Could not connect to " + hub, cause);
+        }
+    }
+
+    /*
+     * What a hub reported on /status: whether it is ready, and its free slots per browser name.
+     */
+    static class HubStatus {
+        final URI hub;
+        final boolean ready;
+        final Map<String, Integer> freeSlots;
+        final long polledAt = System.currentTimeMillis();
+
+        HubStatus(URI hub, boolean ready, Map<String, Integer> freeSlots) {
+            this.hub = hub;
+            this.ready = ready;
+            this.freeSlots = freeSlots;
+        }
+
+        static HubStatus down(URI hub) {
+            return new HubStatus(hub, false, Collections.emptyMap());
+        }
+
+        @SuppressWarnings("unchecked")
+        static HubStatus parse(URI hub, String body) {
+            try {
+                Map<String, Object> status = new Json().toType(body, Json.MAP_TYPE);
+                Map<String, Object> value = (Map<String, Object>) status.get("value");
+                boolean ready = Boolean.TRUE.equals(value.get("ready"));
+                Map<String, Integer> freeSlots = new ConcurrentHashMap<>();
+
+                List<Map<String, Object>> nodes = (List<Map<String, Object>>) value.getOrDefault("nodes", Collections.emptyList());
+                for (Map<String, Object> node : nodes) {
+                    if (!"UP".equals(node.get("availability"))) {
+                        continue;
+                    }
+                    List<Map<String, Object>> slots = (List<Map<String, Object>>) node.getOrDefault("slots", Collections.emptyList());
+                    for (Map<String, Object> slot : slots) {
+                        Map<String, Object> stereotype = (Map<String, Object>) slot.getOrDefault("stereotype", Collections.emptyMap());
+                        Object browser = stereotype.get("browserName");
+                        if (slot.get("session") == null && browser != null) {
+                            freeSlots.merge(browser.toString().toLowerCase(), 1, Integer::sum);
+                        }
+                    }
+                }
+                return new HubStatus(hub, ready, freeSlots);
+            } catch (RuntimeException e) {
+                System.out.println("Unreadable status from hub " + hub + ": " + e.getMessage());
+                return down(hub);
+            }
+        }
+
+        int freeSlots(String browserName) {
+            return freeSlots.getOrDefault(browserName.toLowerCase(), 0);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package cydeo.utilities;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/*
+ * Opts a page object field out of CachingElementLocatorFactory:
+ * the element is looked up again on every use, like plain PageFactory does.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface NoCache {
+}
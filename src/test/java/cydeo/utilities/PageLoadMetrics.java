@@ -0,0 +1,319 @@
+package cydeo.utilities;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.json.Json;
+import org.openqa.selenium.support.decorators.Decorated;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/*
+ * Page-load performance of the pages the suite opens, read from the browser after each navigation:
+ * Navigation Timing (ttfb, domContentLoaded, load), paint and Web Vitals (fcp, lcp, cls) and a summary
+ * of Resource Timing (requests and transferKb, in total and per initiator type, e.g. requests.script).
+ * All times are in milliseconds from the start of the navigation. cls sums the layout shifts of the load,
+ * interactions are left out since the suite's clicks are not a user's.
+ *
+ * A page is measured once, the first time it is seen loaded: after get/navigate commands, when a readiness
+ * wait finds it ready, and before the session is released. Browserless sessions are not measured, HtmlUnit
+ * neither paints nor loads resources like a browser.
+ *
+ * Pages are grouped by URL pattern: the first perf.pages entry (name=regex) whose regex is found in the URL,
+ * otherwise host and path with the path segments containing digits replaced by *. At the end of the run,
+ * the perf.percentile of each group's metrics goes to target/perf-report.json and is compared to the
+ * baseline (perf.baseline): a perf.metrics value above baseline * (1 + perf.tolerance) plus a small
+ * absolute slack (perf.slackMs, perf.slackCls) is a regression, reported as a warning or failing the run
+ * depending on perf.gate (off, warn, fail). Groups with fewer than perf.minSamples pages are not compared.
+ * -Dperf.updateBaseline=true stores this run's values as the new baseline instead.
+ */
+public class PageLoadMetrics {
+
+    private static final boolean ENABLED = ConfigurationReader.getBooleanProperty("perf.enabled", true);
+    private static final Path REPORT = Paths.get("target", "perf-report.json");
+
+    private static final Map<String, Pattern> PAGES = new LinkedHashMap<>();
+    private static final Map<String, Map<String, List<Double>>> samples = new TreeMap<>();
+
+    static {
+        for (String entry : ConfigurationReader.getProperty("perf.pages", "").split(",")) {
+            int separator = entry.indexOf('=');
+            if (separator > 0) {
+                PAGES.put(entry.substring(0, separator).trim(), Pattern.compile(entry.substring(separator + 1).trim()));
+            }
+        }
+    }
+
+    // Reads the timings once per document (the marker is gone after the next navigation). Returns null while
+    // the page is still loading, so a later call measures it. Synchronous: observe() with buffered: true queues
+    // the Web Vitals entries already recorded into the observer's buffer, and takeRecords() returns them right away.
+    private static final String SCRIPT =
+            "var nav = window.performance && performance.getEntriesByType ? performance.getEntriesByType('navigation')[0] : null;" +
+            "if (window.__pageLoadMeasured || !/^https?:/.test(location.href) || document.readyState !== 'complete'" +
+            "    || !nav || !nav.loadEventEnd) {" +
+            "  return null;" +
+            "}" +
+            "window.__pageLoadMeasured = true;" +
+            "var vitals = { cls: 0 };" +
+            "function observe(type, handle) {" +
+            "  try {" +
+            "    var observer = new PerformanceObserver(function () {});" +
+            "    observer.observe({ type: type, buffered: true });" +
+            "    observer.takeRecords().forEach(handle);" +
+            "    observer.disconnect();" +
+            "  } catch (e) {}" +
+            "}" +
+            "observe('largest-contentful-paint', function (e) { vitals.lcp = e.renderTime || e.startTime; });" +
+            "observe('layout-shift', function (e) { if (!e.hadRecentInput) { vitals.cls += e.value; } });" +
+            "var metrics = {" +
+            "  ttfb: nav.responseStart - nav.startTime," +
+            "  domContentLoaded: nav.domContentLoadedEventEnd - nav.startTime," +
+            "  load: nav.loadEventEnd - nav.startTime," +
+            "  cls: vitals.cls," +
+            "  requests: 1," +
+            "  transferKb: (nav.transferSize || 0) / 1024" +
+            "};" +
+            "if (vitals.lcp !== undefined) { metrics.lcp = vitals.lcp; }" +
+            "performance.getEntriesByType('paint').forEach(function (p) {" +
+            "  if (p.name === 'first-contentful-paint') { metrics.fcp = p.startTime; }" +
+            "});" +
+            "performance.getEntriesByType('resource').forEach(function (r) {" +
+            "  var type = r.initiatorType || 'other';" +
+            "  var kb = (r.transferSize || 0) / 1024;" +
+            "  metrics.requests++;" +
+            "  metrics.transferKb += kb;" +
+            "  metrics['requests.' + type] = (metrics['requests.' + type] || 0) + 1;" +
+            "  metrics['transferKb.' + type] = (metrics['transferKb.' + type] || 0) + kb;" +
+            "});" +
+            "return { url: location.href, metrics: metrics };";
+
+    private PageLoadMetrics() {}
+
+    /*
+     * Measures the current page if it is loaded and was not measured yet. Takes the decorated or the raw
+     * session; never fails the caller, a page that can't be read is only counted as perf.collectFailures.
+     */
+    @SuppressWarnings("unchecked")
+    public static void collect(WebDriver driver) {
+        if (!ENABLED || driver == null || BrowserlessDriver.isBrowserless(driver)) {
+            return;
+        }
+        // framework work, kept out of the command metrics
+        WebDriver raw = driver instanceof Decorated ? (WebDriver) ((Decorated<?>) driver).getOriginal() : driver;
+        if (!(raw instanceof JavascriptExecutor)) {
+            return;
+        }
+        Map<String, Object> page;
+        try {
+            page = (Map<String, Object>) ((JavascriptExecutor) raw).executeScript(SCRIPT);
+        } catch (WebDriverException | ClassCastException e) {
+            RunMetrics.increment("perf.collectFailures");
+            return;
+        }
+        if (page != null) {
+            record((String) page.get("url"), (Map<String, Object>) page.get("metrics"));
+        }
+    }
+
+    static synchronized void record(String url, Map<String, Object> metrics) {
+        Map<String, List<Double>> group = samples.computeIfAbsent(pattern(url), k -> new TreeMap<>());
+        metrics.forEach((name, value) -> {
+            if (value instanceof Number) {
+                group.computeIfAbsent(name, k -> new ArrayList<>()).add(((Number) value).doubleValue());
+            }
+        });
+        RunMetrics.increment("perf.pages");
+    }
+
+    /*
+     * Name of the URL's group: the first matching perf.pages entry, else host and path without ids.
+     */
+    static String pattern(String url) {
+        for (Map.Entry<String, Pattern> page : PAGES.entrySet()) {
+            if (page.getValue().matcher(url).find()) {
+                return page.getKey();
+            }
+        }
+        try {
+            URI uri = URI.create(url);
+            String path = uri.getPath() == null || uri.getPath().isEmpty() ? "/" : uri.getPath();
+            return uri.getHost() + Arrays.stream(path.split("/", -1))
+                    .map(segment -> segment.matches(".*[0-9].*") ? "*" : segment)
+                    .collect(Collectors.joining("/"));
+        } catch (IllegalArgumentException e) {
+            return url;
+        }
+    }
+
+    /*
+     * Writes the report of the pages measured since the last call, compares them to the baseline (or updates it)
+     * and forgets them. Returns the regressions, fails with them instead when perf.gate=fail.
+     */
+    public static List<String> finishRun() {
+        Map<String, Map<String, List<Double>>> run;
+        synchronized (PageLoadMetrics.class) {
+            run = new TreeMap<>(samples);
+            samples.clear();
+        }
+        if (run.isEmpty()) {
+            return Collections.emptyList();
+        }
+        double percentile = Double.parseDouble(ConfigurationReader.getProperty("perf.percentile", "75"));
+        String gate = ConfigurationReader.getProperty("perf.gate", "warn");
+        Path baselineFile = Paths.get(ConfigurationReader.getProperty("perf.baseline", "perf-baseline.json"));
+        Map<String, Map<String, Double>> baseline = loadBaseline(baselineFile);
+
+        Map<String, Map<String, Double>> current = new TreeMap<>();
+        Map<String, Object> pages = new TreeMap<>();
+        run.forEach((group, metrics) -> {
+            Map<String, Double> values = new TreeMap<>();
+            Map<String, Object> report = new TreeMap<>();
+            metrics.forEach((name, measured) -> {
+                List<Double> sorted = measured.stream().sorted().collect(Collectors.toList());
+                values.put(name, round(percentile(sorted, percentile)));
+                Map<String, Object> stats = new LinkedHashMap<>();
+                stats.put("p50", round(percentile(sorted, 50)));
+                stats.put("p" + format(percentile), round(percentile(sorted, percentile)));
+                stats.put("max", round(sorted.get(sorted.size() - 1)));
+                Double base = baseline.getOrDefault(group, Collections.emptyMap()).get(name);
+                if (base != null) {
+                    stats.put("baseline", base);
+                }
+                report.put(name, stats);
+            });
+            current.put(group, values);
+            Map<String, Object> page = new LinkedHashMap<>();
+            page.put("samples", metrics.values().stream().mapToInt(List::size).max().orElse(0));
+            page.put("metrics", report);
+            pages.put(group, page);
+        });
+
+        List<String> regressions = new ArrayList<>();
+        if (ConfigurationReader.getBooleanProperty("perf.updateBaseline", false)) {
+            baseline.putAll(current);
+            writeJson(baselineFile, baseline, "Page-load baseline");
+        } else if (!gate.equals("off")) {
+            regressions = compare(run, current, baseline, percentile);
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("percentile", percentile);
+        report.put("baseline", baselineFile.toString());
+        report.put("regressions", regressions);
+        report.put("pages", pages);
+        writeJson(REPORT, report, "Page-load report");
+
+        regressions.forEach(regression -> System.out.println("Page-load regression: " + regression));
+        RunMetrics.add("perf.regressions", regressions.size());
+        if (gate.equals("fail") && !regressions.isEmpty()) {
+            throw new AssertionError(regressions.size() + " page-load regression(s) against " + baselineFile + ": " + regressions);
+        }
+        return regressions;
+    }
+
+    private static List<String> compare(Map<String, Map<String, List<Double>>> run, Map<String, Map<String, Double>> current,
+                                        Map<String, Map<String, Double>> baseline, double percentile) {
+        List<String> gated = Arrays.stream(ConfigurationReader.getProperty("perf.metrics", "ttfb,fcp,lcp,load,cls").split(","))
+                .map(String::trim)
+                .collect(Collectors.toList());
+        double tolerance = Double.parseDouble(ConfigurationReader.getProperty("perf.tolerance", "0.2"));
+        int minSamples = ConfigurationReader.getIntProperty("perf.minSamples", 3);
+
+        List<String> regressions = new ArrayList<>();
+        current.forEach((group, values) -> {
+            Map<String, Double> base = baseline.get(group);
+            if (base == null) {
+                return;
+            }
+            for (String metric : gated) {
+                Double value = values.get(metric);
+                Double limit = base.get(metric);
+                if (value == null || limit == null || run.get(group).get(metric).size() < minSamples) {
+                    continue;
+                }
+                double allowed = limit * (1 + tolerance) + slack(metric);
+                if (value > allowed) {
+                    regressions.add(String.format("%s %s p%s %s > %s (baseline %s)",
+                            group, metric, format(percentile), format(value), format(allowed), format(limit)));
+                }
+            }
+        });
+        return regressions;
+    }
+
+    /*
+     * Absolute margin on top of the tolerance, so near-zero baselines don't flag noise.
+     */
+    private static double slack(String metric) {
+        if (metric.equals("cls")) {
+            return Double.parseDouble(ConfigurationReader.getProperty("perf.slackCls", "0.02"));
+        }
+        if (metric.startsWith("requests") || metric.startsWith("transferKb")) {
+            return 0;
+        }
+        return ConfigurationReader.getIntProperty("perf.slackMs", 50);
+    }
+
+    /*
+     * Nearest-rank percentile of sorted values.
+     */
+    private static double percentile(List<Double> sorted, double percentile) {
+        int rank = (int) Math.ceil(percentile / 100 * sorted.size());
+        return sorted.get(Math.min(sorted.size(), Math.max(1, rank)) - 1);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) ? String.valueOf((long) value) : String.valueOf(round(value));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Map<String, Double>> loadBaseline(Path file) {
+        Map<String, Map<String, Double>> baseline = new TreeMap<>();
+        if (!Files.isRegularFile(file)) {
+            return baseline;
+        }
+        try {
+            Map<String, Object> groups = new Json().toType(new String(Files.readAllBytes(file), StandardCharsets.UTF_8), Json.MAP_TYPE);
+            if (groups != null) {
+                groups.forEach((group, metrics) -> {
+                    Map<String, Double> values = new TreeMap<>();
+                    ((Map<String, Object>) metrics).forEach((name, value) -> values.put(name, ((Number) value).doubleValue()));
+                    baseline.put(group, values);
+                });
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Ignoring unreadable page-load baseline " + file + ": " + e.getMessage());
+            baseline.clear();
+        }
+        return baseline;
+    }
+
+    private static void writeJson(Path file, Object content, String what) {
+        try {
+            Path absolute = file.toAbsolutePath();
+            Files.createDirectories(absolute.getParent());
+            Files.write(absolute, new Json().toJson(content).getBytes(StandardCharsets.UTF_8));
+            System.out.println(what + " written to " + file);
+        } catch (IOException e) {
+            System.out.println("Could not write " + file + ": " + e.getMessage());
+        }
+    }
+}
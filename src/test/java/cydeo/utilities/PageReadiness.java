@@ -0,0 +1,150 @@
+package cydeo.utilities;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.support.ui.WebDriverWait;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/*
+ * Event-driven replacement for fixed sleeps.
+ *
+ * The page counts as ready when document.readyState is "complete", no fetch/XHR request is pending,
+ * the DOM (nodes, text and attributes other than style and class) has not changed for readiness.quietMs
+ * and (optionally) the URL satisfies a condition.
+ * Waits return as soon as that happens and never take longer than the given upper bound.
+ */
+public class PageReadiness {
+
+    private static final long QUIET_MS = ConfigurationReader.getIntProperty("readiness.quietMs", 300);
+    private static final long POLL_MS = ConfigurationReader.getIntProperty("readiness.pollMs", 100);
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(ConfigurationReader.getIntProperty("readiness.timeout", 10));
+
+    // Installs the request counter and mutation observer once per document and reports the current state.
+    // Requests started before the first probe on a document are not counted, readyState covers those.
+    // style and class changes don't count as DOM changes: carousels, spinners and animations toggle them forever.
+    private static final String PROBE =
+            "var r = window.__readiness;" +
+            "if (!r) {" +
+            "  r = window.__readiness = { pending: 0, lastMutation: Date.now() };" +
+            "  if (window.fetch) {" +
+            "    var originalFetch = window.fetch;" +
+            "    window.fetch = function () {" +
+            "      r.pending++;" +
+            "      return originalFetch.apply(this, arguments).finally(function () { r.pending--; });" +
+            "    };" +
+            "  }" +
+            "  var originalSend = XMLHttpRequest.prototype.send;" +
+            "  XMLHttpRequest.prototype.send = function () {" +
+            "    r.pending++;" +
+            "    this.addEventListener('loadend', function () { r.pending--; });" +
+            "    return originalSend.apply(this, arguments);" +
+            "  };" +
+            "  if (document.documentElement) {" +
+            "    new MutationObserver(function (records) {" +
+            "      for (var i = 0; i < records.length; i++) {" +
+            "        var name = records[i].attributeName;" +
+            "        if (records[i].type !== 'attributes' || (name !== 'style' && name !== 'class')) {" +
+            "          r.lastMutation = Date.now();" +
+            "          return;" +
+            "        }" +
+            "      }" +
+            "    }).observe(document.documentElement, { childList: true, subtree: true, attributes: true, characterData: true });" +
+            "  }" +
+            "}" +
+            "return { readyState: document.readyState, pending: r.pending, quietMs: Date.now() - r.lastMutation, url: location.href };";
+
+    private PageReadiness() {}
+
+    /*
+     * Waits until the page is ready or the timeout passes, whichever comes first.
+     * Returns the time actually waited in milliseconds.
+     */
+    public static long waitForReady(WebDriver driver, Duration timeout) {
+        return waitForReady(driver, timeout, url -> true);
+    }
+
+    /*
+     * Same as waitForReady, but the current URL must also satisfy the given condition.
+     */
+    public static long waitForReady(WebDriver driver, Duration timeout, Predicate<String> urlCondition) {
+        long start = System.nanoTime();
+        awaitReady(driver, timeout, urlCondition);
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    /*
+     * Same as waitForReady, but returns whether the page became ready instead of the time waited.
+     */
+    public static boolean awaitReady(WebDriver driver, Duration timeout, Predicate<String> urlCondition) {
+        return awaitReady(driver, timeout, urlCondition, null);
+    }
+
+    /*
+     * Wait that replaces a fixed sleep of the given duration (BrowserUtils.waitFor/sleep). Only these waits
+     * report readiness.savedMs: for other waits the bound is a timeout nobody would have slept through.
+     */
+    public static long waitInsteadOfSleep(WebDriver driver, Duration sleep) {
+        long start = System.nanoTime();
+        awaitReady(driver, sleep, url -> true, sleep);
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    private static boolean awaitReady(WebDriver driver, Duration timeout, Predicate<String> urlCondition, Duration replacedSleep) {
+        long start = System.nanoTime();
+        boolean ready;
+        try {
+            new WebDriverWait(driver, timeout, Duration.ofMillis(POLL_MS))
+                    .until(d -> isReady(d, urlCondition));
+            ready = true;
+            // pages reached by clicks and submits are measured here, once loaded
+            PageLoadMetrics.collect(driver);
+        } catch (TimeoutException e) {
+            ready = false;
+        }
+        long waitedMs = (System.nanoTime() - start) / 1_000_000;
+
+        String caller = caller();
+        RunMetrics.recordNanos("readiness.wait." + caller, waitedMs * 1_000_000);
+        if (replacedSleep != null) {
+            RunMetrics.add("readiness.savedMs." + caller, Math.max(0, replacedSleep.toMillis() - waitedMs));
+        }
+        if (!ready) {
+            RunMetrics.increment("readiness.timeouts." + caller);
+        }
+        return ready;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static boolean isReady(WebDriver driver, Predicate<String> urlCondition) {
+        Map<String, Object> state;
+        try {
+            state = (Map<String, Object>) ((JavascriptExecutor) driver).executeScript(PROBE);
+        } catch (WebDriverException e) {
+            // the document is being replaced (navigation in progress), try again on the next poll
+            return false;
+        }
+        return state != null
+                && "complete".equals(state.get("readyState"))
+                && ((Number) state.get("pending")).longValue() <= 0
+                && ((Number) state.get("quietMs")).longValue() >= QUIET_MS
+                && urlCondition.test((String) state.get("url"));
+    }
+
+    /*
+     * Name of the step or helper that asked for the wait, used to attribute the saved time.
+     */
+    private static String caller() {
+        return StackWalker.getInstance().walk(frames -> frames
+                .filter(f -> !f.getClassName().equals(PageReadiness.class.getName())
+                        && !f.getClassName().equals(BrowserUtils.class.getName())
+                        && !f.getClassName().equals(CompositeAction.class.getName()))
+                .findFirst()
+                .map(f -> f.getClassName().substring(f.getClassName().lastIndexOf('.') + 1) + "." + f.getMethodName())
+                .orElse("unknown"));
+    }
+}
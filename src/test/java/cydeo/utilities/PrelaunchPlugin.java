@@ -0,0 +1,18 @@
+package cydeo.utilities;
+
+import io.cucumber.plugin.ConcurrentEventListener;
+import io.cucumber.plugin.event.EventPublisher;
+import io.cucumber.plugin.event.TestRunStarted;
+
+/*
+ * Cucumber plugin that starts the run's browser sessions in the background as soon as the run begins
+ * (prelaunch.enabled=true), so they launch while Cucumber loads the glue instead of on the first scenario's path.
+ * Prelaunched sessions left unused are quit with the rest of the pool by Hooks at the end of the run.
+ */
+public class PrelaunchPlugin implements ConcurrentEventListener {
+
+    @Override
+    public void setEventPublisher(EventPublisher publisher) {
+        publisher.registerHandlerFor(TestRunStarted.class, event -> Driver.prelaunch());
+    }
+}
@@ -0,0 +1,299 @@
+package cydeo.utilities;
+
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.remote.service.DriverService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/*
+ * Tracks the process tree (driver executable and the browser processes under it) of every local session,
+ * and kills what is left of it once the session is gone.
+ *
+ * Local sessions are launched through launch() with an explicit DriverService, whose port identifies the
+ * driver process among the JVM's children. The tree is snapshotted whenever the session's memory is sampled,
+ * so browser processes that outlive their driver (and get re-parented) are still known.
+ *
+ * reap() runs after a session is quit, reapOrphans() at the end of each scenario and when the pool shuts
+ * down: it also kills chromedriver/geckodriver children of the JVM that belong to no session, e.g. after
+ * a failed launch. Killed processes are counted as reaper.killed.
+ *
+ * Memory is the sum over the tree of the proportional set size (RSS with shared pages split between the
+ * processes sharing them), read from /proc, so it is only available on Linux. Every live session is sampled
+ * every memory.sampleMs while it runs, and once more when it is released or discarded. The peak per session
+ * is logged when the session ends and the largest one is kept as memory.peakSessionMb; sessions above
+ * memory.budgetMb are recycled by the pool instead of being reused.
+ */
+public class ProcessReaper {
+
+    private static final long BUDGET_MB = ConfigurationReader.getIntProperty("memory.budgetMb", 0);
+    private static final long KILL_GRACE_MILLIS = 3000;
+
+    private static final Map<WebDriver, SessionProcesses> sessions = new ConcurrentHashMap<>();
+    // launches (from spawning the driver until it is registered) hold the read lock, reapOrphans() the write lock
+    private static final ReadWriteLock launchLock = new ReentrantReadWriteLock();
+    private static final AtomicInteger orphanReapingPaused = new AtomicInteger();
+
+    // samples the live sessions during their leases, so the peak is not just the memory at release
+    private static final long SAMPLE_MS = ConfigurationReader.getIntProperty("memory.sampleMs", 2000);
+    private static ScheduledExecutorService sampler;
+
+    private ProcessReaper() {}
+
+    /*
+     * Launches a local session on the given service and tracks its processes.
+     * If the launch fails, the service is stopped and its processes are killed.
+     */
+    public static <T extends WebDriver> T launch(DriverService service, Supplier<T> launcher, String browserType) {
+        launchLock.readLock().lock();
+        try {
+            T driver;
+            try {
+                driver = launcher.get();
+            } catch (RuntimeException e) {
+                Optional<ProcessHandle> process = driverProcess(service);
+                List<ProcessHandle> browsers = process.map(p -> p.descendants().collect(Collectors.toList())).orElse(new ArrayList<>());
+                service.stop();
+                process.ifPresent(p -> kill(browsers, p));
+                throw e;
+            }
+            Optional<ProcessHandle> process = driverProcess(service);
+            if (process.isPresent()) {
+                SessionProcesses tracked = new SessionProcesses(browserType, process.get());
+                tracked.snapshot();
+                sessions.put(driver, tracked);
+                startSampler();
+            } else {
+                System.out.println("Could not find the " + browserType + " driver process, its session is not tracked");
+            }
+            return driver;
+        } finally {
+            launchLock.readLock().unlock();
+        }
+    }
+
+    /*
+     * Current memory of the session's processes in MB, -1 if the session is not tracked or /proc is not available.
+     */
+    public static long sampleMb(WebDriver driver) {
+        SessionProcesses tracked = sessions.get(driver);
+        return tracked == null ? -1 : tracked.sample();
+    }
+
+    /*
+     * Memory of every process started by this JVM and their children in MB, -1 if /proc is not available.
+     */
+    public static long childProcessesMb() {
+        long total = -1;
+        for (ProcessHandle process : ProcessHandle.current().descendants().collect(Collectors.toList())) {
+            long mb = memoryMb(process.pid());
+            total = mb < 0 ? total : Math.max(total, 0) + mb;
+        }
+        return total;
+    }
+
+    /*
+     * Samples the session's memory and tells whether it is above memory.budgetMb (never, if no budget is set).
+     */
+    public static boolean overBudget(WebDriver driver) {
+        long mb = sampleMb(driver);
+        if (BUDGET_MB > 0 && mb > BUDGET_MB) {
+            System.out.println(sessions.get(driver).browserType + " session uses " + mb + " MB, above the " + BUDGET_MB
+                    + " MB budget (memory.budgetMb); it will be recycled");
+            RunMetrics.increment("memory.recycled");
+            return true;
+        }
+        return false;
+    }
+
+    /*
+     * Called after the session was quit: reports its peak memory and kills whatever survived the quit.
+     */
+    public static void reap(WebDriver driver) {
+        SessionProcesses tracked = sessions.remove(driver);
+        if (tracked == null) {
+            return;
+        }
+        if (tracked.peakMb >= 0) {
+            System.out.println(tracked.browserType + " session (driver pid " + tracked.driver.pid() + ") peaked at "
+                    + tracked.peakMb + " MB");
+            RunMetrics.recordMax("memory.peakSessionMb", tracked.peakMb);
+        }
+        kill(tracked.known, tracked.driver);
+    }
+
+    /*
+     * Kills driver processes that belong to no session. Skipped while a session is being launched,
+     * as its driver is not registered yet, and while orphan reaping is paused.
+     */
+    public static void reapOrphans() {
+        if (orphanReapingPaused.get() > 0 || !launchLock.writeLock().tryLock()) {
+            return;
+        }
+        List<ProcessHandle> orphans;
+        try {
+            Set<Long> owned = sessions.values().stream().map(tracked -> tracked.driver.pid()).collect(Collectors.toSet());
+            orphans = ProcessHandle.current().children()
+                    .filter(process -> !owned.contains(process.pid()) && isDriverExecutable(process))
+                    .collect(Collectors.toList());
+        } finally {
+            launchLock.writeLock().unlock();
+        }
+        // a driver started from now on is not in the list, so the kills can wait outside the lock
+        for (ProcessHandle process : orphans) {
+            System.out.println("Killing orphaned driver process " + process.pid() + " " + process.info().command().orElse(""));
+            kill(process.descendants().collect(Collectors.toList()), process);
+        }
+    }
+
+    /*
+     * Kills every tracked session's processes and the orphans, when no session can be used anymore.
+     */
+    public static void reapAll() {
+        for (WebDriver driver : new ArrayList<>(sessions.keySet())) {
+            reap(driver);
+        }
+        reapOrphans();
+    }
+
+    /*
+     * Stops reapOrphans() from killing untracked drivers, e.g. while an embedded grid node runs its own
+     * drivers in this JVM. Calls nest; every pause needs its resume.
+     */
+    public static void pauseOrphanReaping() {
+        orphanReapingPaused.incrementAndGet();
+    }
+
+    public static void resumeOrphanReaping() {
+        orphanReapingPaused.decrementAndGet();
+    }
+
+    private static synchronized void startSampler() {
+        if (sampler != null || SAMPLE_MS <= 0) {
+            return;
+        }
+        sampler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "session-memory-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleWithFixedDelay(() -> {
+            try {
+                sessions.values().forEach(SessionProcesses::sample);
+            } catch (RuntimeException e) {
+                // a session ending while it is sampled
+            }
+        }, SAMPLE_MS, SAMPLE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private static Optional<ProcessHandle> driverProcess(DriverService service) {
+        String port = "--port=" + service.getUrl().getPort();
+        return ProcessHandle.current().children()
+                .filter(process -> process.info().arguments().map(args -> List.of(args).contains(port)).orElse(false)
+                        || process.info().commandLine().map(line -> line.contains(port)).orElse(false))
+                .findFirst();
+    }
+
+    private static boolean isDriverExecutable(ProcessHandle process) {
+        String command = process.info().command().orElse("");
+        return command.endsWith("chromedriver") || command.endsWith("geckodriver")
+                || command.endsWith("chromedriver.exe") || command.endsWith("geckodriver.exe");
+    }
+
+    /*
+     * Asks the processes to terminate, then kills the ones still alive after a grace period.
+     * The driver goes last so it can't start anything new meanwhile.
+     */
+    private static void kill(List<ProcessHandle> processes, ProcessHandle driver) {
+        List<ProcessHandle> all = new ArrayList<>(processes);
+        all.add(driver);
+        List<ProcessHandle> alive = all.stream().filter(ProcessHandle::isAlive).collect(Collectors.toList());
+        if (alive.isEmpty()) {
+            return;
+        }
+        alive.forEach(ProcessHandle::destroy);
+        for (ProcessHandle process : alive) {
+            try {
+                process.onExit().get(KILL_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                process.destroyForcibly();
+            }
+        }
+        RunMetrics.add("reaper.killed", alive.size());
+    }
+
+    /*
+     * Memory of a process in MB: Pss from smaps_rollup, VmRSS from status on older kernels, -1 if unknown.
+     */
+    static long memoryMb(long pid) {
+        long kb = readKb(Paths.get("/proc", String.valueOf(pid), "smaps_rollup"), "Pss:");
+        if (kb < 0) {
+            kb = readKb(Paths.get("/proc", String.valueOf(pid), "status"), "VmRSS:");
+        }
+        return kb < 0 ? -1 : kb / 1024;
+    }
+
+    private static long readKb(Path file, String field) {
+        try {
+            for (String line : Files.readAllLines(file)) {
+                if (line.startsWith(field)) {
+                    return Long.parseLong(line.substring(field.length()).trim().split("\\s+")[0]);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // not Linux, no permission or the process just exited
+        }
+        return -1;
+    }
+
+    private static class SessionProcesses {
+        private final String browserType;
+        private final ProcessHandle driver;
+        // every process seen under the driver so far
+        private final List<ProcessHandle> known = new ArrayList<>();
+        private volatile long peakMb = -1;
+
+        SessionProcesses(String browserType, ProcessHandle driver) {
+            this.browserType = browserType;
+            this.driver = driver;
+        }
+
+        synchronized void snapshot() {
+            driver.descendants().filter(process -> !known.contains(process)).forEach(known::add);
+        }
+
+        /*
+         * Current memory of the tree in MB, -1 if unknown; also updates the session's peak.
+         */
+        synchronized long sample() {
+            snapshot();
+            long total = -1;
+            for (ProcessHandle process : known) {
+                if (process.isAlive()) {
+                    long mb = memoryMb(process.pid());
+                    total = mb < 0 ? total : Math.max(total, 0) + mb;
+                }
+            }
+            long driverMb = memoryMb(driver.pid());
+            total = driverMb < 0 ? total : Math.max(total, 0) + driverMb;
+            peakMb = Math.max(peakMb, total);
+            return total;
+        }
+    }
+}
@@ -0,0 +1,438 @@
+package cydeo.utilities;
+
+import org.openqa.selenium.MutableCapabilities;
+import org.openqa.selenium.Proxy;
+import org.openqa.selenium.remote.CapabilityType;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/*
+ * Local HTTP(S) proxy that records the responses a run receives (replay.mode=record) and serves them back
+ * from the archive in replay.archive (replay.mode=replay), so scenarios run at local-disk speed and offline.
+ *
+ * HTTPS is intercepted with one self-signed certificate generated by keytool on first use; sessions
+ * configured through configure() accept it with acceptInsecureCerts. In replay mode requests that were
+ * never recorded get a 404, unless replay.fallthrough=true sends them to the network.
+ * Hit ratio and bytes served are kept in the run metrics (replay.*).
+ */
+public class RecordReplayProxy {
+
+    private static final String MODE = ConfigurationReader.getProperty("replay.mode", "off");
+    private static final Path ARCHIVE = Paths.get(ConfigurationReader.getProperty("replay.archive", "replay-archive"));
+    private static final Path KEYSTORE = Paths.get("target", "replay-proxy.p12");
+    private static final char[] KEYSTORE_PASSWORD = "replay-proxy".toCharArray();
+
+    // query parameters that change on every load (cache busters...) and are left out of the archive key
+    private static final Set<String> IGNORED_PARAMS = new HashSet<>(Arrays.asList(
+            ConfigurationReader.getProperty("replay.ignoreParams", "_,cb,timestamp").split(",")));
+
+    // connection-level headers that are not forwarded, plus conditional ones so that full responses are recorded
+    private static final Set<String> SKIPPED_REQUEST_HEADERS = new HashSet<>(Arrays.asList(
+            "host", "connection", "proxy-connection", "keep-alive", "content-length", "transfer-encoding", "te",
+            "trailer", "upgrade", "expect", "proxy-authorization", "if-none-match", "if-modified-since"));
+    private static final Set<String> SKIPPED_RESPONSE_HEADERS = new HashSet<>(Arrays.asList(
+            "connection", "keep-alive", "content-length", "transfer-encoding", "trailer", "upgrade", "proxy-authenticate"));
+
+    private static RecordReplayProxy instance;
+
+    private final boolean recording;
+    private final boolean fallthrough;
+    private final ReplayArchive archive;
+    private final ServerSocket serverSocket;
+    private final SSLContext sslContext;
+    private final HttpClient upstream;
+    private final ExecutorService connections = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "replay-proxy");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private RecordReplayProxy(boolean recording) throws IOException, GeneralSecurityException {
+        this.recording = recording;
+        this.fallthrough = ConfigurationReader.getBooleanProperty("replay.fallthrough", false);
+        this.archive = recording
+                ? ReplayArchive.forRecording(ARCHIVE)
+                : ReplayArchive.forReplay(ARCHIVE, ConfigurationReader.getIntProperty("replay.lruMb", 64) * 1024L * 1024L);
+        this.sslContext = sslContext();
+        this.upstream = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        this.serverSocket = new ServerSocket(0, 100, InetAddress.getLoopbackAddress());
+
+        Thread acceptor = new Thread(this::accept, "replay-proxy-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        System.out.println("Replay proxy (" + MODE + ", " + archive.size() + " recorded responses) on port " + serverSocket.getLocalPort());
+    }
+
+    public static boolean isEnabled() {
+        return MODE.equals("record") || MODE.equals("replay");
+    }
+
+    /*
+     * Points the browser options at the proxy, starting it on first use. Does nothing with replay.mode=off.
+     */
+    public static void configure(MutableCapabilities options) {
+        if (!isEnabled()) {
+            return;
+        }
+        String address = "127.0.0.1:" + instance().serverSocket.getLocalPort();
+        Proxy proxy = new Proxy().setHttpProxy(address).setSslProxy(address).setNoProxy("");
+        options.setCapability(CapabilityType.PROXY, proxy);
+        options.setCapability(CapabilityType.ACCEPT_INSECURE_CERTS, true);
+    }
+
+    private static synchronized RecordReplayProxy instance() {
+        if (instance == null) {
+            try {
+                instance = new RecordReplayProxy(MODE.equals("record"));
+            } catch (IOException | GeneralSecurityException e) {
+                throw new IllegalStateException("Could not start the replay proxy: " + e.getMessage(), e);
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(instance::close, "replay-proxy-shutdown"));
+        }
+        return instance;
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                connections.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    System.out.println("Replay proxy could not accept a connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /*
+     * One browser connection: plain HTTP proxy requests, or a CONNECT tunnel that is terminated here.
+     */
+    private void serve(Socket socket) {
+        try (Socket client = socket) {
+            client.setSoTimeout(60_000);
+            InputStream in = new BufferedInputStream(client.getInputStream());
+            OutputStream out = client.getOutputStream();
+            String requestLine = readLine(in);
+            if (requestLine == null) {
+                return;
+            }
+            if (requestLine.startsWith("CONNECT ")) {
+                String authority = requestLine.split(" ")[1];
+                readHeaders(in);
+                out.write("HTTP/1.1 200 Connection Established\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+                int colon = authority.lastIndexOf(':');
+                String host = colon < 0 ? authority : authority.substring(0, colon);
+                try (SSLSocket tls = (SSLSocket) sslContext.getSocketFactory().createSocket(client, host, client.getPort(), false)) {
+                    tls.setUseClientMode(false);
+                    String origin = "https://" + (authority.endsWith(":443") ? host : authority);
+                    InputStream tlsIn = new BufferedInputStream(tls.getInputStream());
+                    String line;
+                    while ((line = readLine(tlsIn)) != null && !line.isEmpty()) {
+                        if (!exchange(line, origin, tlsIn, tls.getOutputStream())) {
+                            break;
+                        }
+                    }
+                }
+            } else {
+                String line = requestLine;
+                do {
+                    if (!exchange(line, null, in, out)) {
+                        break;
+                    }
+                } while ((line = readLine(in)) != null && !line.isEmpty());
+            }
+        } catch (IOException e) {
+            // browsers drop idle proxy connections all the time
+        }
+    }
+
+    /*
+     * Reads one request and writes its response. Returns false when the connection has to be closed.
+     */
+    private boolean exchange(String requestLine, String origin, InputStream in, OutputStream out) throws IOException {
+        String[] parts = requestLine.split(" ");
+        if (parts.length < 3) {
+            return false;
+        }
+        String method = parts[0];
+        String url = origin == null ? parts[1] : origin + parts[1];
+        List<String[]> headers = readHeaders(in);
+        byte[] body = readBody(in, headers);
+        boolean close = "close".equalsIgnoreCase(header(headers, "connection"))
+                || "close".equalsIgnoreCase(header(headers, "proxy-connection"));
+
+        String key = key(method, url, body);
+        ReplayArchive.Response response = recording ? null : archive.get(key);
+        if (response != null) {
+            hits.incrementAndGet();
+            RunMetrics.increment("replay.hits");
+        } else if (recording || fallthrough) {
+            response = forward(method, url, headers, body);
+            if (recording && response.getStatus() != 502) {
+                archive.put(key, response);
+                RunMetrics.increment("replay.recorded");
+                RunMetrics.add("replay.bytesRecorded", response.getBody().length);
+            } else {
+                misses.incrementAndGet();
+                RunMetrics.increment("replay.misses");
+            }
+        } else {
+            misses.incrementAndGet();
+            RunMetrics.increment("replay.misses");
+            response = new ReplayArchive.Response(404, new ArrayList<>(), ("Not recorded: " + key).getBytes(StandardCharsets.UTF_8));
+        }
+        if (!recording) {
+            RunMetrics.gauge("replay.hitRatio", hits.get() / (double) Math.max(1, hits.get() + misses.get()));
+        }
+
+        StringBuilder head = new StringBuilder("HTTP/1.1 ").append(response.getStatus()).append(" \r\n");
+        for (String header : response.getHeaders()) {
+            head.append(header).append("\r\n");
+        }
+        boolean hasBody = !method.equals("HEAD") && response.getStatus() != 204 && response.getStatus() != 304;
+        head.append("Content-Length: ").append(hasBody ? response.getBody().length : 0).append("\r\n");
+        head.append(close ? "Connection: close\r\n" : "Connection: keep-alive\r\n").append("\r\n");
+        out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        if (hasBody) {
+            out.write(response.getBody());
+            RunMetrics.add("replay.bytesServed", response.getBody().length);
+        }
+        out.flush();
+        return !close;
+    }
+
+    private ReplayArchive.Response forward(String method, String url, List<String[]> headers, byte[] body) {
+        try {
+            HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+                    .timeout(Duration.ofSeconds(30))
+                    .method(method, body.length == 0 ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofByteArray(body));
+            for (String[] header : headers) {
+                if (!SKIPPED_REQUEST_HEADERS.contains(header[0].toLowerCase(Locale.ROOT))) {
+                    try {
+                        request.header(header[0], header[1]);
+                    } catch (IllegalArgumentException e) {
+                        // a header the JDK client sets itself
+                    }
+                }
+            }
+            HttpResponse<byte[]> response = upstream.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+            List<String> responseHeaders = new ArrayList<>();
+            response.headers().map().forEach((name, values) -> {
+                if (!name.startsWith(":") && !SKIPPED_RESPONSE_HEADERS.contains(name.toLowerCase(Locale.ROOT))) {
+                    values.forEach(value -> responseHeaders.add(name + ": " + value));
+                }
+            });
+            return new ReplayArchive.Response(response.statusCode(), responseHeaders, response.body());
+        } catch (IOException | IllegalArgumentException e) {
+            return new ReplayArchive.Response(502, new ArrayList<>(), ("Upstream failed: " + e.getMessage()).getBytes(StandardCharsets.UTF_8));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ReplayArchive.Response(502, new ArrayList<>(), new byte[0]);
+        }
+    }
+
+    /*
+     * Method and URL without ignored query parameters, plus a checksum of the request body if there is one.
+     */
+    static String key(String method, String url, byte[] body) {
+        String normalized = url;
+        int query = url.indexOf('?');
+        if (query >= 0) {
+            StringBuilder kept = new StringBuilder();
+            for (String parameter : url.substring(query + 1).split("&")) {
+                String name = parameter.split("=", 2)[0];
+                if (!parameter.isEmpty() && !IGNORED_PARAMS.contains(name)) {
+                    kept.append(kept.length() == 0 ? "?" : "&").append(parameter);
+                }
+            }
+            normalized = url.substring(0, query) + kept;
+        }
+        int fragment = normalized.indexOf('#');
+        if (fragment >= 0) {
+            normalized = normalized.substring(0, fragment);
+        }
+        String key = method + " " + normalized;
+        if (body.length > 0) {
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            key += " " + Long.toHexString(crc.getValue());
+        }
+        return key.replace('\n', ' ').replace('\r', ' ');
+    }
+
+    private void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // shutting down anyway
+        }
+        connections.shutdownNow();
+        try {
+            connections.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        archive.close();
+        System.out.println(recording
+                ? "Replay archive recorded to " + ARCHIVE + " (" + archive.size() + " responses)"
+                : "Replay hits: " + hits.get() + ", misses: " + misses.get());
+    }
+
+    /*
+     * Self-signed certificate for every intercepted host, generated once with the JDK's keytool.
+     */
+    private static SSLContext sslContext() throws IOException, GeneralSecurityException {
+        if (!Files.exists(KEYSTORE)) {
+            Files.createDirectories(KEYSTORE.getParent());
+            String keytool = Paths.get(System.getProperty("java.home"), "bin", "keytool").toString();
+            Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "replay-proxy", "-keyalg", "RSA",
+                    "-keysize", "2048", "-validity", "3650", "-dname", "CN=replay-proxy", "-storetype", "PKCS12",
+                    "-keystore", KEYSTORE.toString(), "-storepass", new String(KEYSTORE_PASSWORD))
+                    .redirectErrorStream(true)
+                    .start();
+            try {
+                byte[] output = process.getInputStream().readAllBytes();
+                if (process.waitFor() != 0) {
+                    throw new IOException("keytool failed: " + new String(output, StandardCharsets.UTF_8));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while generating the proxy certificate", e);
+            }
+        }
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = Files.newInputStream(KEYSTORE)) {
+            keyStore.load(in, KEYSTORE_PASSWORD);
+        }
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, KEYSTORE_PASSWORD);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagers.getKeyManagers(), null, null);
+        return context;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                break;
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+        return line.toString(StandardCharsets.ISO_8859_1);
+    }
+
+    private static List<String[]> readHeaders(InputStream in) throws IOException {
+        List<String[]> headers = new ArrayList<>();
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.add(new String[]{line.substring(0, colon).trim(), line.substring(colon + 1).trim()});
+            }
+        }
+        return headers;
+    }
+
+    /*
+     * The request body, by Content-Length or chunked (which wins when both are sent, like in HTTP/1.1).
+     */
+    private static byte[] readBody(InputStream in, List<String[]> headers) throws IOException {
+        String encoding = header(headers, "transfer-encoding");
+        if (encoding != null && encoding.toLowerCase(Locale.ROOT).contains("chunked")) {
+            return readChunked(in);
+        }
+        String length = header(headers, "content-length");
+        if (length == null) {
+            return new byte[0];
+        }
+        return in.readNBytes(Integer.parseInt(length));
+    }
+
+    /*
+     * Chunks up to the last (empty) one, then the trailer headers, which are dropped.
+     */
+    private static byte[] readChunked(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        while (true) {
+            String sizeLine = readLine(in);
+            if (sizeLine == null) {
+                throw new IOException("Connection closed inside a chunked body");
+            }
+            int extension = sizeLine.indexOf(';');
+            int size;
+            try {
+                size = Integer.parseInt((extension < 0 ? sizeLine : sizeLine.substring(0, extension)).trim(), 16);
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad chunk size: " + sizeLine, e);
+            }
+            if (size == 0) {
+                readHeaders(in);
+                return body.toByteArray();
+            }
+            byte[] chunk = in.readNBytes(size);
+            if (chunk.length < size) {
+                throw new IOException("Connection closed inside a chunk");
+            }
+            body.write(chunk);
+            // the CRLF closing the chunk
+            readLine(in);
+        }
+    }
+
+    private static String header(List<String[]> headers, String name) {
+        for (String[] header : headers) {
+            if (header[0].equalsIgnoreCase(name)) {
+                return header[1];
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,191 @@
+package cydeo.utilities;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * On-disk archive of recorded HTTP responses, used by RecordReplayProxy.
+ *
+ * responses.dat holds the responses back to back: status, header lines and body, each length-prefixed.
+ * responses.idx has one "offset length key" line per response; both files are only appended to,
+ * and a key recorded twice is served from its last recording.
+ * For replay the data file is memory-mapped, and decoded responses are kept in an LRU tier bounded
+ * by replay.lruMb, so hot assets are served without touching the mapping again.
+ */
+public class ReplayArchive {
+
+    private static final String DATA = "responses.dat";
+    private static final String INDEX = "responses.idx";
+
+    private final Map<String, long[]> index = new HashMap<>();
+    private final LinkedHashMap<String, Response> hot = new LinkedHashMap<>(256, 0.75f, true);
+    private final long maxHotBytes;
+    private long hotBytes;
+
+    private MappedByteBuffer mapped;
+    private FileChannel dataChannel;
+    private BufferedWriter indexWriter;
+
+    private ReplayArchive(long maxHotBytes) {
+        this.maxHotBytes = maxHotBytes;
+    }
+
+    /*
+     * Starts a new recording in the directory, replacing what was recorded there before.
+     */
+    public static ReplayArchive forRecording(Path directory) {
+        ReplayArchive archive = new ReplayArchive(0);
+        try {
+            Files.createDirectories(directory);
+            archive.dataChannel = FileChannel.open(directory.resolve(DATA),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            archive.indexWriter = Files.newBufferedWriter(directory.resolve(INDEX), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create replay archive in " + directory, e);
+        }
+        return archive;
+    }
+
+    /*
+     * Opens a recording for replay: loads the index and maps the responses read-only.
+     */
+    public static ReplayArchive forReplay(Path directory, long maxHotBytes) {
+        ReplayArchive archive = new ReplayArchive(maxHotBytes);
+        try (FileChannel channel = FileChannel.open(directory.resolve(DATA), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Replay archive is larger than 2 GB, record fewer scenarios per archive");
+            }
+            archive.mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            for (String line : Files.readAllLines(directory.resolve(INDEX), StandardCharsets.UTF_8)) {
+                String[] parts = line.split(" ", 3);
+                if (parts.length == 3) {
+                    archive.index.put(parts[2], new long[]{Long.parseLong(parts[0]), Long.parseLong(parts[1])});
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open replay archive in " + directory + ", record it first", e);
+        }
+        return archive;
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /*
+     * Appends a response. Keys must not contain line breaks.
+     */
+    public synchronized void put(String key, Response response) {
+        byte[] headers = String.join("\n", response.headers).getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(12 + headers.length + response.body.length);
+        record.putInt(response.status).putInt(headers.length).put(headers).putInt(response.body.length).put(response.body);
+        record.flip();
+        try {
+            long offset = dataChannel.position();
+            while (record.hasRemaining()) {
+                dataChannel.write(record);
+            }
+            indexWriter.write(offset + " " + record.limit() + " " + key);
+            indexWriter.newLine();
+            index.put(key, new long[]{offset, record.limit()});
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not append to replay archive", e);
+        }
+    }
+
+    /*
+     * The recorded response, or null if the key was never recorded.
+     */
+    public synchronized Response get(String key) {
+        Response response = hot.get(key);
+        if (response != null) {
+            RunMetrics.increment("replay.lruHits");
+            return response;
+        }
+        long[] location = index.get(key);
+        if (location == null || mapped == null) {
+            return null;
+        }
+
+        ByteBuffer record = mapped.duplicate();
+        record.position((int) location[0]);
+        int status = record.getInt();
+        byte[] headers = new byte[record.getInt()];
+        record.get(headers);
+        byte[] body = new byte[record.getInt()];
+        record.get(body);
+        List<String> headerLines = new ArrayList<>();
+        for (String line : new String(headers, StandardCharsets.UTF_8).split("\n")) {
+            if (!line.isEmpty()) {
+                headerLines.add(line);
+            }
+        }
+        response = new Response(status, headerLines, body);
+
+        if (maxHotBytes > 0 && location[1] <= maxHotBytes / 4) {
+            hot.put(key, response);
+            hotBytes += location[1];
+            while (hotBytes > maxHotBytes) {
+                Map.Entry<String, Response> eldest = hot.entrySet().iterator().next();
+                hotBytes -= index.get(eldest.getKey())[1];
+                hot.remove(eldest.getKey());
+            }
+        }
+        return response;
+    }
+
+    public synchronized void close() {
+        try {
+            if (indexWriter != null) {
+                indexWriter.close();
+            }
+            if (dataChannel != null) {
+                dataChannel.force(true);
+                dataChannel.close();
+            }
+        } catch (IOException e) {
+            System.out.println("Could not close replay archive: " + e.getMessage());
+        }
+    }
+
+    /*
+     * A response as sent to the browser: status, "Name: value" header lines and the body as received
+     * (still compressed if the server compressed it).
+     */
+    public static class Response {
+        private final int status;
+        private final List<String> headers;
+        private final byte[] body;
+
+        public Response(int status, List<String> headers, byte[] body) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public List<String> getHeaders() {
+            return headers;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+    }
+}
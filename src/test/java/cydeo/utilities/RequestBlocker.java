@@ -0,0 +1,278 @@
+package cydeo.utilities;
+
+import org.openqa.selenium.HasCapabilities;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.bidi.BiDi;
+import org.openqa.selenium.bidi.HasBiDi;
+import org.openqa.selenium.chromium.ChromiumDriver;
+import org.openqa.selenium.devtools.Command;
+import org.openqa.selenium.devtools.DevTools;
+import org.openqa.selenium.devtools.Event;
+import org.openqa.selenium.devtools.HasDevTools;
+import org.openqa.selenium.firefox.FirefoxOptions;
+import org.openqa.selenium.json.Json;
+import org.openqa.selenium.support.decorators.Decorated;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/*
+ * Keeps sessions from downloading what no assertion looks at: images, fonts, analytics, trackers...
+ * Enabled with block.enabled=true, the profile is made of
+ *   block.urlPatterns    wildcard URL patterns, e.g. *google-analytics.com*
+ *   block.resourceTypes  DevTools resource types, e.g. Image,Font,Media
+ *   block.domains        third-party domains, blocked with their subdomains
+ *
+ * Chrome requests are intercepted with the DevTools Fetch domain, only for requests matching the profile,
+ * so allowed requests never wait on the test JVM. Firefox blocks the domains through BiDi network
+ * interception, and images, fonts and media through preferences; URL patterns are Chrome only.
+ * Bytes saved are estimated from typical transfer sizes per resource type, since a blocked
+ * response is never downloaded. What Firefox's preferences keep from loading never reaches the test
+ * JVM, so on Firefox the stats only count the blocked domains, not images, fonts and media.
+ */
+public class RequestBlocker {
+
+    private static final boolean ENABLED = ConfigurationReader.getBooleanProperty("block.enabled", false);
+    private static final List<String> URL_PATTERNS = list("block.urlPatterns");
+    private static final List<String> RESOURCE_TYPES = list("block.resourceTypes");
+    private static final List<String> DOMAINS = list("block.domains");
+
+    // median transfer sizes per resource type on desktop pages (HTTP Archive), in bytes
+    private static final Map<String, Long> TYPICAL_BYTES = new HashMap<>();
+
+    static {
+        TYPICAL_BYTES.put("Image", 25_000L);
+        TYPICAL_BYTES.put("Font", 30_000L);
+        TYPICAL_BYTES.put("Media", 250_000L);
+        TYPICAL_BYTES.put("Script", 20_000L);
+        TYPICAL_BYTES.put("Stylesheet", 10_000L);
+    }
+
+    private static final long OTHER_BYTES = 5_000L;
+
+    private static final Map<WebDriver, BlockStats> statsPerSession = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private RequestBlocker() {}
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /*
+     * Firefox part that has to be set before launch: BiDi for the domains, preferences for resource types.
+     */
+    public static void configure(FirefoxOptions options) {
+        if (!ENABLED) {
+            return;
+        }
+        if (!DOMAINS.isEmpty()) {
+            options.setCapability("webSocketUrl", true);
+        }
+        if (RESOURCE_TYPES.contains("Image")) {
+            options.addPreference("permissions.default.image", 2);
+        }
+        if (RESOURCE_TYPES.contains("Font")) {
+            options.addPreference("gfx.downloadable_fonts.enabled", false);
+        }
+        if (RESOURCE_TYPES.contains("Media")) {
+            options.addPreference("media.autoplay.default", 5);
+            options.addPreference("media.preload.default", 0);
+        }
+    }
+
+    /*
+     * Starts blocking on a freshly launched session. Sessions without DevTools or BiDi are left alone.
+     */
+    public static void install(WebDriver driver) {
+        if (!ENABLED) {
+            return;
+        }
+        try {
+            // FirefoxDriver implements HasDevTools too, but has no Fetch domain: BiDi first, DevTools for Chromium only
+            boolean bidi = driver instanceof HasBiDi && ((HasBiDi) driver).maybeGetBiDi().isPresent();
+            if (bidi) {
+                if (!DOMAINS.isEmpty()) {
+                    installBiDi(driver);
+                }
+            } else if (driver instanceof HasDevTools && isChromium(driver)) {
+                installDevTools(driver);
+            } else if (!"firefox".equals(browserName(driver))) {
+                // Firefox without BiDi (no block.domains) only has the preferences set at launch
+                System.out.println("Request blocking is not available for " + driver.getClass().getSimpleName());
+            }
+        } catch (RuntimeException e) {
+            System.out.println("Could not install request blocking: " + e.getMessage());
+        }
+    }
+
+    /*
+     * Requests blocked in the session since the last call, e.g. during one scenario.
+     * Takes the decorated or the raw session; returns empty stats if nothing is blocked there.
+     */
+    public static BlockStats takeStats(WebDriver driver) {
+        WebDriver raw = driver instanceof Decorated ? (WebDriver) ((Decorated<?>) driver).getOriginal() : driver;
+        BlockStats stats = statsPerSession.get(raw);
+        BlockStats taken = stats == null ? new BlockStats() : stats.drain();
+        RunMetrics.add("block.requests", taken.getRequests());
+        RunMetrics.add("block.estimatedBytesSaved", taken.getEstimatedBytes());
+        return taken;
+    }
+
+    /*
+     * Moves the DevTools interception to the session's current tab, for sessions that switch to a tab of
+     * another target (BrowserContexts). The Fetch.requestPaused listener stays registered on the connection.
+     */
+    public static void reattach(WebDriver driver) {
+        if (!ENABLED || !statsPerSession.containsKey(driver) || !(driver instanceof HasDevTools) || !isChromium(driver)) {
+            return;
+        }
+        try {
+            DevTools devTools = ((HasDevTools) driver).getDevTools();
+            devTools.disconnectSession();
+            devTools.createSession(driver.getWindowHandle());
+            devTools.send(new Command<>("Fetch.enable", Collections.singletonMap("patterns", fetchPatterns())));
+        } catch (RuntimeException e) {
+            System.out.println("Could not move request blocking to the new tab: " + e.getMessage());
+        }
+    }
+
+    private static void installDevTools(WebDriver driver) {
+        List<Map<String, Object>> patterns = fetchPatterns();
+        if (patterns.isEmpty()) {
+            return;
+        }
+        DevTools devTools = ((HasDevTools) driver).getDevTools();
+        // attached to the session's own tab, not to whichever page target chromedriver lists first
+        devTools.createSessionIfThereIsNotOne(driver.getWindowHandle());
+
+        BlockStats stats = new BlockStats();
+        statsPerSession.put(driver, stats);
+        devTools.addListener(new Event<>("Fetch.requestPaused", input -> input.<Map<String, Object>>read(Json.MAP_TYPE)), paused -> {
+            stats.record(String.valueOf(paused.get("resourceType")));
+            Map<String, Object> fail = new LinkedHashMap<>();
+            fail.put("requestId", paused.get("requestId"));
+            fail.put("errorReason", "BlockedByClient");
+            devTools.send(new Command<>("Fetch.failRequest", fail));
+        });
+        devTools.send(new Command<>("Fetch.enable", Collections.singletonMap("patterns", patterns)));
+    }
+
+    /*
+     * Fetch patterns are OR-ed, so every pattern pauses only requests that are going to be blocked.
+     */
+    private static List<Map<String, Object>> fetchPatterns() {
+        List<Map<String, Object>> patterns = new ArrayList<>();
+        for (String urlPattern : URL_PATTERNS) {
+            patterns.add(pattern(urlPattern, null));
+        }
+        for (String domain : DOMAINS) {
+            for (String host : Arrays.asList(domain, "*." + domain)) {
+                patterns.add(pattern("*://" + host + "/*", null));
+                patterns.add(pattern("*://" + host + ":*", null));
+            }
+        }
+        for (String resourceType : RESOURCE_TYPES) {
+            patterns.add(pattern("*", resourceType));
+        }
+        return patterns;
+    }
+
+    private static void installBiDi(WebDriver driver) {
+        BiDi bidi = ((HasBiDi) driver).getBiDi();
+
+        // BiDi URL patterns match host names exactly, so subdomains in use have to be listed too
+        List<Map<String, Object>> urlPatterns = DOMAINS.stream().flatMap(domain -> Arrays.asList(domain, "www." + domain).stream())
+                .map(host -> {
+                    Map<String, Object> pattern = new LinkedHashMap<>();
+                    pattern.put("type", "pattern");
+                    pattern.put("hostname", host);
+                    return pattern;
+                })
+                .collect(Collectors.toList());
+
+        BlockStats stats = new BlockStats();
+        statsPerSession.put(driver, stats);
+        bidi.addListener(new org.openqa.selenium.bidi.Event<Map<String, Object>>("network.beforeRequestSent", params -> params), event -> {
+            if (!Boolean.TRUE.equals(event.get("isBlocked"))) {
+                return;
+            }
+            @SuppressWarnings("unchecked")
+            Map<String, Object> request = (Map<String, Object>) event.get("request");
+            stats.record("Other");
+            bidi.send(new org.openqa.selenium.bidi.Command<>("network.failRequest",
+                    Collections.singletonMap("request", request.get("request"))));
+        });
+
+        Map<String, Object> intercept = new LinkedHashMap<>();
+        intercept.put("phases", Collections.singletonList("beforeRequestSent"));
+        intercept.put("urlPatterns", urlPatterns);
+        bidi.send(new org.openqa.selenium.bidi.Command<>("network.addIntercept", intercept));
+    }
+
+    private static boolean isChromium(WebDriver driver) {
+        return driver instanceof ChromiumDriver || Arrays.asList("chrome", "msedge", "MicrosoftEdge").contains(browserName(driver));
+    }
+
+    private static String browserName(WebDriver driver) {
+        return driver instanceof HasCapabilities ? ((HasCapabilities) driver).getCapabilities().getBrowserName() : null;
+    }
+
+    private static Map<String, Object> pattern(String urlPattern, String resourceType) {
+        Map<String, Object> pattern = new LinkedHashMap<>();
+        pattern.put("urlPattern", urlPattern);
+        if (resourceType != null) {
+            pattern.put("resourceType", resourceType);
+        }
+        pattern.put("requestStage", "Request");
+        return pattern;
+    }
+
+    private static List<String> list(String key) {
+        String value = ConfigurationReader.getProperty(key, "");
+        return Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    /*
+     * Blocked request count and estimated bytes saved.
+     */
+    public static class BlockStats {
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong estimatedBytes = new AtomicLong();
+
+        void record(String resourceType) {
+            requests.incrementAndGet();
+            estimatedBytes.addAndGet(TYPICAL_BYTES.getOrDefault(resourceType, OTHER_BYTES));
+        }
+
+        BlockStats drain() {
+            BlockStats drained = new BlockStats();
+            drained.requests.set(requests.getAndSet(0));
+            drained.estimatedBytes.set(estimatedBytes.getAndSet(0));
+            return drained;
+        }
+
+        public long getRequests() {
+            return requests.get();
+        }
+
+        public long getEstimatedBytes() {
+            return estimatedBytes.get();
+        }
+
+        @Override
+        public String toString() {
+            return "Blocked " + getRequests() + " requests, ~" + getEstimatedBytes() / 1024 + " KB saved";
+        }
+    }
+}
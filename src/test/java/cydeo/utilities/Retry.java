@@ -0,0 +1,196 @@
+package cydeo.utilities;
+
+import org.openqa.selenium.NoSuchSessionException;
+import org.openqa.selenium.WebDriverException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/*
+ * Retry/polling engine shared by the BrowserUtils helpers.
+ *
+ * Attempts are spaced by exponential backoff with jitter (retry.initialMs, retry.multiplier, retry.maxMs,
+ * retry.jitter) and bounded by a deadline and/or a number of attempts. Only exceptions listed with
+ * retryOn() are retried, abortOn() ones (a dead session by default) fail right away. The thread is parked
+ * between attempts, so waiting uses no CPU.
+ *
+ * Per call site (helper + calling step) the run metrics get retry.<site>.attempts, .retries, .exhausted
+ * and the time spent retrying, retry.<site>.retrying.
+ *
+ *   Retry.named("clickWithTimeOut").within(Duration.ofSeconds(5)).retryOn(WebDriverException.class).run(element::click);
+ */
+public class Retry {
+
+    private final String name;
+    private Duration deadline;
+    private int maxAttempts = Integer.MAX_VALUE;
+    private long initialNanos = Duration.ofMillis(ConfigurationReader.getIntProperty("retry.initialMs", 100)).toNanos();
+    private long maxNanos = Duration.ofMillis(ConfigurationReader.getIntProperty("retry.maxMs", 2000)).toNanos();
+    private double multiplier = Double.parseDouble(ConfigurationReader.getProperty("retry.multiplier", "2.0"));
+    private double jitter = Double.parseDouble(ConfigurationReader.getProperty("retry.jitter", "0.2"));
+    private final List<Class<? extends Throwable>> retryOn = new ArrayList<>();
+    private final List<Class<? extends Throwable>> abortOn = new ArrayList<>(Arrays.asList(NoSuchSessionException.class));
+
+    private Retry(String name) {
+        this.name = name;
+    }
+
+    /*
+     * Starts a policy for the named helper; the calling step is added to the metrics name.
+     */
+    public static Retry named(String name) {
+        return new Retry(name);
+    }
+
+    public Retry within(Duration deadline) {
+        this.deadline = deadline;
+        return this;
+    }
+
+    public Retry attempts(int maxAttempts) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        return this;
+    }
+
+    /*
+     * Delay before the first retry, growing by the multiplier up to the maximum delay.
+     */
+    public Retry backoff(Duration initial, double multiplier, Duration max) {
+        this.initialNanos = initial.toNanos();
+        this.multiplier = Math.max(1.0, multiplier);
+        this.maxNanos = max.toNanos();
+        return this;
+    }
+
+    /*
+     * Each delay is randomly moved by up to this fraction (0-1), so parallel workers don't retry in lockstep.
+     */
+    public Retry jitter(double jitter) {
+        this.jitter = Math.min(1.0, Math.max(0.0, jitter));
+        return this;
+    }
+
+    @SafeVarargs
+    public final Retry retryOn(Class<? extends Throwable>... exceptions) {
+        for (Class<? extends Throwable> exception : exceptions) {
+            retryOn.add(exception);
+        }
+        return this;
+    }
+
+    @SafeVarargs
+    public final Retry abortOn(Class<? extends Throwable>... exceptions) {
+        for (Class<? extends Throwable> exception : exceptions) {
+            abortOn.add(exception);
+        }
+        return this;
+    }
+
+    /*
+     * Calls the action until it returns, rethrowing the last failure once the attempts or the deadline run out.
+     */
+    public <T> T call(Supplier<T> action) {
+        String site = name + "." + caller();
+        long start = System.nanoTime();
+        long deadlineAt = deadline == null ? Long.MAX_VALUE : start + deadline.toNanos();
+        long delay = initialNanos;
+        int attempt = 0;
+        try {
+            while (true) {
+                attempt++;
+                try {
+                    return action.get();
+                } catch (RuntimeException e) {
+                    if (!isRetryable(e)) {
+                        throw e;
+                    }
+                    long remaining = deadlineAt - System.nanoTime();
+                    if (attempt >= maxAttempts || remaining <= 0) {
+                        RunMetrics.increment("retry." + site + ".exhausted");
+                        throw e;
+                    }
+                    long wakeUpAt = System.nanoTime() + Math.min(withJitter(delay), remaining);
+                    for (long left = wakeUpAt - System.nanoTime(); left > 0; left = wakeUpAt - System.nanoTime()) {
+                        LockSupport.parkNanos(this, left);
+                        if (Thread.interrupted()) {
+                            Thread.currentThread().interrupt();
+                            throw new IllegalStateException("Interrupted while retrying " + site, e);
+                        }
+                    }
+                    delay = Math.min(maxNanos, (long) (delay * multiplier));
+                }
+            }
+        } finally {
+            RunMetrics.add("retry." + site + ".attempts", attempt);
+            if (attempt > 1) {
+                RunMetrics.add("retry." + site + ".retries", attempt - 1);
+                RunMetrics.recordNanos("retry." + site + ".retrying", System.nanoTime() - start);
+            }
+        }
+    }
+
+    public void run(Runnable action) {
+        call(() -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /*
+     * Like run(), but reports failure instead of throwing it, for helpers that give up silently.
+     * Exceptions that are not retryable are still thrown.
+     */
+    public boolean tryRun(Runnable action) {
+        try {
+            run(action);
+            return true;
+        } catch (RuntimeException e) {
+            if (!isRetryable(e)) {
+                throw e;
+            }
+            return false;
+        }
+    }
+
+    private boolean isRetryable(Throwable e) {
+        for (Class<? extends Throwable> type : abortOn) {
+            if (type.isInstance(e)) {
+                return false;
+            }
+        }
+        List<Class<? extends Throwable>> retryable = retryOn.isEmpty()
+                ? Arrays.asList(WebDriverException.class)
+                : retryOn;
+        for (Class<? extends Throwable> type : retryable) {
+            if (type.isInstance(e)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long withJitter(long delay) {
+        if (jitter == 0) {
+            return delay;
+        }
+        double factor = 1 + jitter * (ThreadLocalRandom.current().nextDouble() * 2 - 1);
+        return Math.max(0, (long) (delay * factor));
+    }
+
+    /*
+     * The step or page method that called the helper.
+     */
+    private static String caller() {
+        return StackWalker.getInstance().walk(frames -> frames
+                .filter(f -> !f.getClassName().equals(Retry.class.getName())
+                        && !f.getClassName().equals(BrowserUtils.class.getName()))
+                .findFirst()
+                .map(f -> f.getClassName().substring(f.getClassName().lastIndexOf('.') + 1) + "." + f.getMethodName())
+                .orElse("unknown"));
+    }
+}
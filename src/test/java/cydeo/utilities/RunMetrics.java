@@ -0,0 +1,106 @@
+package cydeo.utilities;
+
+import org.openqa.selenium.json.Json;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Collects run-wide counters and latency histograms and writes them to target/run-metrics.json
+ * when the JVM shuts down. All methods are thread safe and cheap enough to call from hot paths.
+ */
+public class RunMetrics {
+
+    private static final Path REPORT = Paths.get("target", "run-metrics.json");
+
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final Map<String, LatencyHistogram> timers = new ConcurrentHashMap<>();
+    private static final Map<String, AtomicLong> maxima = new ConcurrentHashMap<>();
+    private static final Map<String, Double> gauges = new ConcurrentHashMap<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(RunMetrics::writeReport, "run-metrics-report"));
+    }
+
+    private RunMetrics() {}
+
+    public static void increment(String name) {
+        add(name, 1);
+    }
+
+    public static void add(String name, long delta) {
+        counters.computeIfAbsent(name, k -> new LongAdder()).add(delta);
+    }
+
+    public static long count(String name) {
+        LongAdder adder = counters.get(name);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    /*
+     * Records one occurrence of the named timer, e.g. how long a lease waited for a session.
+     */
+    public static void recordNanos(String name, long nanos) {
+        histogram(name).record(nanos);
+    }
+
+    /*
+     * The histogram behind a timer, for callers that record often and want to skip the name lookup.
+     */
+    public static LatencyHistogram histogram(String name) {
+        return timers.computeIfAbsent(name, k -> new LatencyHistogram());
+    }
+
+    /*
+     * Stores a single measured value, e.g. the replay cache hit ratio.
+     */
+    public static void gauge(String name, double value) {
+        gauges.put(name, value);
+    }
+
+    /*
+     * Keeps the highest value seen for the name, e.g. the peak number of live sessions.
+     */
+    public static void recordMax(String name, long value) {
+        maxima.computeIfAbsent(name, k -> new AtomicLong(Long.MIN_VALUE)).accumulateAndGet(value, Math::max);
+    }
+
+    /*
+     * Snapshot of everything recorded so far, in the same shape as the JSON report.
+     */
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> counterValues = new TreeMap<>();
+        counters.forEach((name, adder) -> counterValues.put(name, adder.sum()));
+
+        Map<String, Object> timerValues = new TreeMap<>();
+        timers.forEach((name, timer) -> timerValues.put(name, timer.toMap()));
+
+        Map<String, Object> maximumValues = new TreeMap<>();
+        maxima.forEach((name, max) -> maximumValues.put(name, max.get()));
+
+        Map<String, Object> report = new TreeMap<>();
+        report.put("counters", counterValues);
+        report.put("gauges", new TreeMap<>(gauges));
+        report.put("maxima", maximumValues);
+        report.put("timers", timerValues);
+        return report;
+    }
+
+    public static synchronized void writeReport() {
+        try {
+            Files.createDirectories(REPORT.getParent());
+            Files.write(REPORT, new Json().toJson(snapshot()).getBytes(StandardCharsets.UTF_8));
+            System.out.println("Run metrics written to " + REPORT);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package cydeo.utilities;
+
+import org.openqa.selenium.json.Json;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Durations and failure rates of the scenarios in earlier runs, kept in schedule.history
+ * (scenario-history.json by default) and keyed by "path:line" like the shard plans.
+ *
+ * Both are exponentially weighted moving averages, so recent runs count most: each run moves them
+ * by schedule.alpha towards the new value. Only passed and failed scenarios are recorded, a skipped
+ * or undefined one says nothing about how long it takes.
+ */
+public class ScenarioHistory {
+
+    private static final double ALPHA = Double.parseDouble(ConfigurationReader.getProperty("schedule.alpha", "0.3"));
+
+    private final Path file;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private ScenarioHistory(Path file) {
+        this.file = file;
+    }
+
+    public static Path defaultFile() {
+        return Paths.get(ConfigurationReader.getProperty("schedule.history", "scenario-history.json"));
+    }
+
+    /*
+     * The history in the file, empty if there is no file yet or it can't be read.
+     */
+    @SuppressWarnings("unchecked")
+    public static ScenarioHistory load(Path file) {
+        ScenarioHistory history = new ScenarioHistory(file);
+        if (!Files.isRegularFile(file)) {
+            return history;
+        }
+        try {
+            Map<String, Object> scenarios = new Json().toType(new String(Files.readAllBytes(file), StandardCharsets.UTF_8), Json.MAP_TYPE);
+            if (scenarios != null) {
+                scenarios.forEach((scenario, value) -> {
+                    Map<String, Object> entry = (Map<String, Object>) value;
+                    history.entries.put(scenario, new Entry(((Number) entry.get("seconds")).doubleValue(),
+                            ((Number) entry.get("failureRate")).doubleValue(), ((Number) entry.get("runs")).longValue()));
+                });
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Ignoring unreadable scenario history " + file + ": " + e.getMessage());
+            history.entries.clear();
+        }
+        return history;
+    }
+
+    /*
+     * Folds one result of the scenario into its averages.
+     */
+    public void record(String scenario, double seconds, boolean failed) {
+        entries.merge(scenario, new Entry(seconds, failed ? 1 : 0, 1), (old, run) -> new Entry(
+                old.seconds + ALPHA * (run.seconds - old.seconds),
+                old.failureRate + ALPHA * (run.failureRate - old.failureRate),
+                old.runs + 1));
+    }
+
+    public Entry get(String scenario) {
+        return entries.get(scenario);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /*
+     * Writes the history to a temporary file first, so an interrupted run never leaves half a file.
+     */
+    public synchronized void save() {
+        Map<String, Object> scenarios = new TreeMap<>();
+        entries.forEach((scenario, entry) -> {
+            Map<String, Object> value = new LinkedHashMap<>();
+            value.put("seconds", Math.round(entry.seconds * 1000) / 1000.0);
+            value.put("failureRate", Math.round(entry.failureRate * 1000) / 1000.0);
+            value.put("runs", entry.runs);
+            scenarios.put(scenario, value);
+        });
+        try {
+            Path absolute = file.toAbsolutePath();
+            Files.createDirectories(absolute.getParent());
+            Path temp = Files.createTempFile(absolute.getParent(), "scenario-history", ".tmp");
+            Files.write(temp, new Json().toJson(scenarios).getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("Could not write the scenario history " + file + ": " + e.getMessage());
+        }
+    }
+
+    /*
+     * "path:line" of a scenario from its feature URI (file: or classpath:) and line,
+     * relative to the project directory with forward slashes.
+     */
+    public static String key(URI uri, int line) {
+        return toPath(uri.toString()) + ":" + line;
+    }
+
+    public static String toPath(String uri) {
+        if (uri.startsWith("classpath:")) {
+            return normalize(Paths.get("src/test/resources", uri.substring("classpath:".length())));
+        }
+        if (uri.startsWith("file:/")) {
+            return normalize(Paths.get(URI.create(uri)));
+        }
+        return normalize(Paths.get(uri.startsWith("file:") ? uri.substring("file:".length()) : uri));
+    }
+
+    public static String normalize(Path path) {
+        Path absolute = path.toAbsolutePath().normalize();
+        Path base = Paths.get("").toAbsolutePath();
+        Path relative = absolute.startsWith(base) ? base.relativize(absolute) : absolute;
+        return relative.toString().replace('\\', '/');
+    }
+
+    /*
+     * Average duration in seconds, failure rate between 0 and 1, and number of recorded runs.
+     */
+    public static class Entry {
+        private final double seconds;
+        private final double failureRate;
+        private final long runs;
+
+        Entry(double seconds, double failureRate, long runs) {
+            this.seconds = seconds;
+            this.failureRate = failureRate;
+            this.runs = runs;
+        }
+
+        public double getSeconds() {
+            return seconds;
+        }
+
+        public double getFailureRate() {
+            return failureRate;
+        }
+
+        public long getRuns() {
+            return runs;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package cydeo.utilities;
+
+import java.util.concurrent.Callable;
+
+/*
+ * Tracks which scenario the current thread is working for.
+ *
+ * Unlike an InheritableThreadLocal the scenario is never copied into child threads implicitly,
+ * so pooled executor threads can't leak it into unrelated work. Tasks that a step hands to another
+ * thread (executors, CompletableFuture, virtual threads) carry it explicitly with wrap(...).
+ */
+public final class ScenarioScope {
+
+    private static final ThreadLocal<String> currentScenario = new ThreadLocal<>();
+
+    private ScenarioScope() {}
+
+    public static void bind(String scenarioId) {
+        currentScenario.set(scenarioId);
+    }
+
+    public static void unbind() {
+        currentScenario.remove();
+    }
+
+    /*
+     * Id of the scenario bound to this thread. Threads outside any scenario get their own
+     * thread-scoped id, which keeps the old one-driver-per-thread behaviour for them.
+     */
+    public static String currentId() {
+        String id = currentScenario.get();
+        return id != null ? id : "thread-" + Thread.currentThread().getId();
+    }
+
+    public static Runnable wrap(Runnable task) {
+        String scenarioId = currentId();
+        return () -> {
+            String previous = currentScenario.get();
+            currentScenario.set(scenarioId);
+            try {
+                task.run();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    public static <T> Callable<T> wrap(Callable<T> task) {
+        String scenarioId = currentId();
+        return () -> {
+            String previous = currentScenario.get();
+            currentScenario.set(scenarioId);
+            try {
+                return task.call();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    private static void restore(String previous) {
+        if (previous == null) {
+            currentScenario.remove();
+        } else {
+            currentScenario.set(previous);
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package cydeo.utilities;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.chromium.ChromiumDriver;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/*
+ * Bounded pool of warm WebDriver sessions.
+ *
+ * A scenario leases a session, and closing the driver hands it back instead of quitting the browser.
+ * Between leases the session is reset (extra windows, cookies and storage are cleared), and it is
+ * recycled after maxUses leases, when its processes use more than memory.budgetMb, or as soon as it
+ * fails a health check. Processes left over by quit sessions are killed by ProcessReaper.
+ */
+public class SessionPool {
+
+    private final int maxSize;
+    private final int maxUses;
+    private final Function<String, WebDriver> factory;
+    private final UnaryOperator<WebDriver> decorator;
+
+    // idle sessions per browser type, plus the number of sessions alive (idle + leased)
+    private final Map<String, Deque<PooledSession>> idle = new HashMap<>();
+    // sessions being pre-launched in the background per browser type, already counted in total
+    private final Map<String, Integer> prelaunching = new HashMap<>();
+    private int total;
+    private boolean shutdown;
+
+    /*
+     * The factory launches raw browser sessions; the decorator wraps each one (e.g. for instrumentation)
+     * before it is handed out, while resets and health checks go to the raw session.
+     */
+    public SessionPool(int maxSize, int maxUses, Function<String, WebDriver> factory, UnaryOperator<WebDriver> decorator) {
+        this.maxSize = Math.max(1, maxSize);
+        this.maxUses = Math.max(1, maxUses);
+        this.factory = factory;
+        this.decorator = decorator;
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "session-pool-shutdown"));
+    }
+
+    /*
+     * Returns a healthy session of the given browser type, creating one if the pool has room
+     * and waiting for a released session otherwise. Returns null if the factory could not create one.
+     */
+    public PooledSession lease(String browserType) {
+        long start = System.nanoTime();
+        try {
+            while (true) {
+                PooledSession candidate = null;
+                PooledSession evicted = null;
+                boolean create = false;
+
+                synchronized (this) {
+                    if (shutdown) {
+                        throw new IllegalStateException("Session pool is shut down");
+                    }
+                    Deque<PooledSession> sessions = idle.get(browserType);
+                    if (sessions != null && !sessions.isEmpty()) {
+                        candidate = sessions.pollFirst();
+                    } else if (prelaunching.getOrDefault(browserType, 0) > 0) {
+                        // a session of this type is almost up, launching another one would only compete with it
+                        wait();
+                        continue;
+                    } else if (total < maxSize) {
+                        total++;
+                        create = true;
+                    } else if ((evicted = pollIdleOfOtherType(browserType)) == null) {
+                        wait();
+                        continue;
+                    }
+                }
+
+                if (evicted != null) {
+                    // the pool is full of idle sessions for another browser, make room for this one
+                    discard(evicted);
+                    continue;
+                }
+
+                if (candidate != null) {
+                    if (isHealthy(candidate)) {
+                        candidate.uses++;
+                        RunMetrics.increment("pool.hit");
+                        return candidate;
+                    }
+                    RunMetrics.increment("pool.unhealthy");
+                    discard(candidate);
+                    continue;
+                }
+
+                if (create) {
+                    WebDriver driver = null;
+                    long launchStart = System.nanoTime();
+                    try {
+                        driver = factory.apply(browserType);
+                    } finally {
+                        if (driver == null) {
+                            freeSlot();
+                        }
+                    }
+                    if (driver == null) {
+                        return null;
+                    }
+                    RunMetrics.recordNanos("browser.startup." + browserType, System.nanoTime() - launchStart);
+                    RunMetrics.increment("pool.miss");
+                    PooledSession session = new PooledSession(browserType, driver, decorator.apply(driver));
+                    session.uses++;
+                    return session;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a pooled session", e);
+        } finally {
+            RunMetrics.recordNanos("pool.leaseWait", System.nanoTime() - start);
+        }
+    }
+
+    /*
+     * Launches up to count sessions of the given type in the background and adds them to the idle sessions,
+     * without going over the pool size. Leases of that type wait for them rather than launching their own.
+     */
+    public void prelaunch(String browserType, int count) {
+        for (int i = 0; i < count; i++) {
+            synchronized (this) {
+                if (shutdown || total >= maxSize) {
+                    return;
+                }
+                total++;
+                prelaunching.merge(browserType, 1, Integer::sum);
+            }
+            Thread launcher = new Thread(() -> prelaunchOne(browserType), "session-prelaunch-" + i);
+            launcher.setDaemon(true);
+            launcher.start();
+        }
+    }
+
+    private void prelaunchOne(String browserType) {
+        PooledSession session = null;
+        long launchStart = System.nanoTime();
+        try {
+            WebDriver driver = factory.apply(browserType);
+            if (driver != null) {
+                session = new PooledSession(browserType, driver, decorator.apply(driver));
+                RunMetrics.recordNanos("browser.startup." + browserType, System.nanoTime() - launchStart);
+                RunMetrics.increment("pool.prelaunched");
+            }
+        } catch (RuntimeException e) {
+            System.out.println("Could not pre-launch " + browserType + " session: " + e.getMessage());
+        }
+
+        boolean quit = false;
+        synchronized (this) {
+            prelaunching.merge(browserType, -1, Integer::sum);
+            if (session == null) {
+                total--;
+            } else if (shutdown) {
+                quit = true;
+            } else {
+                idle.computeIfAbsent(browserType, k -> new ArrayDeque<>()).addLast(session);
+            }
+            notifyAll();
+        }
+        if (quit) {
+            discard(session);
+        }
+    }
+
+    /*
+     * Takes the session back. It is reset and kept for the next lease,
+     * or quit if it reached maxUses, can't be reset, or the pool is shutting down.
+     */
+    public void release(PooledSession session) {
+        boolean keep = session.uses < maxUses && !ProcessReaper.overBudget(session.rawDriver) && reset(session.rawDriver);
+        synchronized (this) {
+            if (keep && !shutdown) {
+                idle.computeIfAbsent(session.browserType, k -> new ArrayDeque<>()).addFirst(session);
+                notifyAll();
+                return;
+            }
+        }
+        if (keep) {
+            // shut down while the session was being reset
+            discard(session);
+        } else {
+            RunMetrics.increment("pool.recycled");
+            discard(session);
+        }
+    }
+
+    /*
+     * Quits the session and frees its slot. Used when a leased session turns out to be broken.
+     */
+    public void discard(PooledSession session) {
+        try {
+            ProcessReaper.sampleMb(session.rawDriver);
+            session.rawDriver.quit();
+        } catch (RuntimeException e) {
+            System.out.println("Could not quit session: " + e.getMessage());
+        } finally {
+            ProcessReaper.reap(session.rawDriver);
+            freeSlot();
+        }
+    }
+
+    public synchronized int size() {
+        return total;
+    }
+
+    public void shutdown() {
+        List<PooledSession> toQuit = new ArrayList<>();
+        synchronized (this) {
+            shutdown = true;
+            idle.values().forEach(toQuit::addAll);
+            idle.clear();
+            notifyAll();
+        }
+        for (PooledSession session : toQuit) {
+            if (session.uses == 0) {
+                RunMetrics.increment("pool.prelaunchedUnused");
+            }
+            discard(session);
+        }
+        ProcessReaper.reapAll();
+    }
+
+    private synchronized void freeSlot() {
+        total--;
+        notifyAll();
+    }
+
+    private PooledSession pollIdleOfOtherType(String browserType) {
+        for (Map.Entry<String, Deque<PooledSession>> entry : idle.entrySet()) {
+            if (!entry.getKey().equals(browserType) && !entry.getValue().isEmpty()) {
+                return entry.getValue().pollLast();
+            }
+        }
+        return null;
+    }
+
+    private static boolean isHealthy(PooledSession session) {
+        try {
+            session.rawDriver.getWindowHandle();
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    /*
+     * Brings the session back to a blank state: one window, no cookies, no web storage.
+     */
+    private static boolean reset(WebDriver driver) {
+        try {
+            if (driver instanceof BrowserlessDriver && ((BrowserlessDriver) driver).hasFallenBack()) {
+                // the next browserless scenario should get the HTML engine again, not the fallback browser
+                return false;
+            }
+            if (driver instanceof BrowserContexts.ContextDriver) {
+                // a brand-new browser context replaces the used one, with its cookies, storage and cache
+                ((BrowserContexts.ContextDriver) driver).renewContext();
+                return true;
+            }
+
+            Set<String> handles = driver.getWindowHandles();
+            String main = handles.iterator().next();
+            for (String handle : handles) {
+                if (!handle.equals(main)) {
+                    driver.switchTo().window(handle).close();
+                }
+            }
+            driver.switchTo().window(main);
+
+            // storage is only reachable while we are still on the page's origin
+            ((JavascriptExecutor) driver).executeScript(
+                    "try { window.localStorage.clear(); window.sessionStorage.clear(); } catch (e) {}");
+
+            if (driver instanceof ChromiumDriver) {
+                // clears cookies of every domain, not only the current one
+                ((ChromiumDriver) driver).executeCdpCommand("Network.clearBrowserCookies", new HashMap<>());
+            } else {
+                driver.manage().deleteAllCookies();
+            }
+            driver.get("about:blank");
+            return true;
+        } catch (RuntimeException e) {
+            System.out.println("Could not reset session, it will be recycled: " + e.getMessage());
+            return false;
+        }
+    }
+
+    public static class PooledSession {
+        private final String browserType;
+        private final WebDriver rawDriver;
+        private final WebDriver driver;
+        private int uses;
+
+        PooledSession(String browserType, WebDriver rawDriver, WebDriver driver) {
+            this.browserType = browserType;
+            this.rawDriver = rawDriver;
+            this.driver = driver;
+        }
+
+        public String getBrowserType() {
+            return browserType;
+        }
+
+        /*
+         * The decorated session handed to scenarios.
+         */
+        public WebDriver getDriver() {
+            return driver;
+        }
+
+        /*
+         * The undecorated session, for framework internals that should not show up in command metrics.
+         */
+        public WebDriver getRawDriver() {
+            return rawDriver;
+        }
+
+        public int getUses() {
+            return uses;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package cydeo.utilities;
+
+import org.openqa.selenium.WebDriver;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Sessions leased from the pool, keyed by scenario id.
+ *
+ * Every thread working for the same scenario gets the same session, and nothing is tied to the
+ * thread itself, so steps may use executors, async code or virtual threads. A session stays
+ * registered until release() is called; sessions held longer than session.leakTimeout seconds
+ * are reported as leaks, and whatever is still registered at JVM shutdown is released.
+ */
+public class SessionRegistry {
+
+    private final SessionPool pool;
+    private final long leakTimeoutMillis;
+    private final Map<String, CompletableFuture<Registration>> sessions = new ConcurrentHashMap<>();
+
+    public SessionRegistry(SessionPool pool, long leakTimeoutSeconds) {
+        this.pool = pool;
+        this.leakTimeoutMillis = TimeUnit.SECONDS.toMillis(leakTimeoutSeconds);
+
+        ScheduledExecutorService leakDetector = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "session-leak-detector");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, leakTimeoutSeconds / 4);
+        leakDetector.scheduleAtFixedRate(this::reportLeaks, period, period, TimeUnit.SECONDS);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(this::releaseAll, "session-registry-shutdown"));
+    }
+
+    /*
+     * Returns the scenario's session, leasing one from the pool on first use.
+     * Concurrent calls for the same scenario share a single lease.
+     */
+    public WebDriver acquire(String scenarioId, String browserType) {
+        CompletableFuture<Registration> created = new CompletableFuture<>();
+        CompletableFuture<Registration> existing = sessions.putIfAbsent(scenarioId, created);
+        if (existing != null) {
+            return join(existing).session.getDriver();
+        }
+
+        try {
+            SessionPool.PooledSession session = pool.lease(browserType);
+            if (session == null) {
+                sessions.remove(scenarioId, created);
+                created.complete(null);
+                return null;
+            }
+            created.complete(new Registration(session));
+            RunMetrics.recordMax("sessions.live", sessions.size());
+            return session.getDriver();
+        } catch (RuntimeException e) {
+            sessions.remove(scenarioId, created);
+            created.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /*
+     * Returns the scenario's session without leasing one, or null.
+     */
+    public WebDriver get(String scenarioId) {
+        CompletableFuture<Registration> registration = sessions.get(scenarioId);
+        if (registration == null || !registration.isDone()) {
+            return null;
+        }
+        Registration done = join(registration);
+        return done == null ? null : done.session.getDriver();
+    }
+
+    /*
+     * Hands the scenario's session back to the pool.
+     */
+    public void release(String scenarioId) {
+        CompletableFuture<Registration> registration = sessions.remove(scenarioId);
+        if (registration != null) {
+            Registration done = join(registration);
+            if (done != null) {
+                pool.release(done.session);
+            }
+        }
+    }
+
+    public int liveSessions() {
+        return sessions.size();
+    }
+
+    private void reportLeaks() {
+        long now = System.currentTimeMillis();
+        sessions.forEach((scenarioId, registration) -> {
+            Registration done = registration.getNow(null);
+            if (done != null && !done.reportedAsLeak && now - done.acquiredAt > leakTimeoutMillis) {
+                done.reportedAsLeak = true;
+                RunMetrics.increment("sessions.leaked");
+                System.out.println("Possible session leak: scenario " + scenarioId + " acquired a session on "
+                        + done.acquiredBy + " " + (now - done.acquiredAt) / 1000 + "s ago and never released it");
+            }
+        });
+    }
+
+    private void releaseAll() {
+        for (String scenarioId : sessions.keySet()) {
+            System.out.println("Session of scenario " + scenarioId + " was never released, releasing it at shutdown");
+            RunMetrics.increment("sessions.releasedAtShutdown");
+            try {
+                release(scenarioId);
+            } catch (RuntimeException e) {
+                System.out.println("Could not release session: " + e.getMessage());
+            }
+        }
+    }
+
+    private static Registration join(CompletableFuture<Registration> registration) {
+        try {
+            return registration.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    private static class Registration {
+        private final SessionPool.PooledSession session;
+        private final long acquiredAt = System.currentTimeMillis();
+        private final String acquiredBy = Thread.currentThread().getName();
+        private volatile boolean reportedAsLeak;
+
+        Registration(SessionPool.PooledSession session) {
+            this.session = session;
+        }
+    }
+}
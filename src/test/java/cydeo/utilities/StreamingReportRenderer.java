@@ -0,0 +1,178 @@
+package cydeo.utilities;
+
+import org.openqa.selenium.json.Json;
+import org.openqa.selenium.json.JsonOutput;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+ * Renders cucumber.json and cucumber-reports.html from one or more NDJSON streams written by
+ * StreamingReporter, e.g. the streams of all shards of a run.
+ *
+ * The streams are read once, line by line, and both reports are written while reading, so memory
+ * stays constant whatever the suite size. cucumber.json therefore holds one feature entry per scenario,
+ * with the feature's id, for report tools to merge by id (mergeFeaturesById in the Jenkins cucumber step);
+ * the HTML summary is written last and shown first with CSS.
+ *
+ * Usage: StreamingReportRenderer <output directory> <stream.ndjson | directory of streams>...
+ */
+public class StreamingReportRenderer {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("Usage: StreamingReportRenderer <output directory> <stream.ndjson | directory>...");
+        }
+        List<Path> streams = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            Path input = Paths.get(args[i]);
+            if (Files.isDirectory(input)) {
+                try (Stream<Path> files = Files.walk(input)) {
+                    streams.addAll(files.filter(p -> p.toString().endsWith(".ndjson")).sorted().collect(Collectors.toList()));
+                }
+            } else {
+                streams.add(input);
+            }
+        }
+        render(streams, Paths.get(args[0]));
+    }
+
+    /*
+     * Writes cucumber.json and cucumber-reports.html into the output directory.
+     */
+    @SuppressWarnings("unchecked")
+    public static void render(List<Path> streams, Path outputDirectory) throws IOException {
+        Files.createDirectories(outputDirectory);
+        Path jsonReport = outputDirectory.resolve("cucumber.json");
+        Path htmlReport = outputDirectory.resolve("cucumber-reports.html");
+        Map<String, Integer> totals = new LinkedHashMap<>();
+        long totalNanos = 0;
+
+        try (Writer jsonWriter = Files.newBufferedWriter(jsonReport, StandardCharsets.UTF_8);
+             JsonOutput json = new Json().newOutput(jsonWriter);
+             Writer html = Files.newBufferedWriter(htmlReport, StandardCharsets.UTF_8)) {
+            json.beginArray();
+            html.write("<!DOCTYPE html><html><head><meta charset=\"utf-8\"><title>Cucumber report</title><style>"
+                    + "body{font-family:sans-serif;margin:0 2em;display:flex;flex-direction:column}"
+                    + "#summary{order:-1}details{border-left:6px solid #999;margin:.4em 0;padding:.2em .6em}"
+                    + ".passed{border-color:#3a3}.failed{border-color:#d33}.skipped,.pending,.undefined{border-color:#da3}"
+                    + "li.failed{color:#d33}li.skipped{color:#999}pre{background:#f6f6f6;padding:.5em;overflow:auto}"
+                    + "summary{cursor:pointer}small{color:#666}</style></head><body>\n");
+
+            for (Path stream : streams) {
+                try (BufferedReader reader = Files.newBufferedReader(stream, StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (line.trim().isEmpty()) {
+                            continue;
+                        }
+                        Map<String, Object> entry = new Json().toType(line, Json.MAP_TYPE);
+                        Map<String, Object> feature = new LinkedHashMap<>((Map<String, Object>) entry.get("feature"));
+                        Map<String, Object> element = (Map<String, Object>) entry.get("element");
+
+                        feature.put("elements", Collections.singletonList(element));
+                        json.write(feature);
+
+                        String status = String.valueOf(element.getOrDefault("status", "unknown"));
+                        totals.merge(status, 1, Integer::sum);
+                        totalNanos += scenarioNanos(element);
+                        writeScenario(html, feature, element, status);
+                    }
+                }
+            }
+            json.endArray();
+
+            StringBuilder summary = new StringBuilder("<div id=\"summary\"><h1>Cucumber report</h1><p>");
+            int scenarios = totals.values().stream().mapToInt(Integer::intValue).sum();
+            summary.append(scenarios).append(" scenarios");
+            totals.forEach((status, count) -> summary.append(", ").append(count).append(' ').append(escape(status)));
+            summary.append(String.format(" in %.1fs of scenario time</p></div>", totalNanos / 1e9));
+            html.write(summary.toString());
+            html.write("</body></html>\n");
+        }
+        System.out.println("Reports rendered from " + streams.size() + " stream(s) to " + jsonReport + " and " + htmlReport);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeScenario(Writer html, Map<String, Object> feature, Map<String, Object> element, String status)
+            throws IOException {
+        StringBuilder out = new StringBuilder();
+        out.append("<details class=\"").append(escape(status)).append("\"")
+                .append("failed".equals(status) ? " open" : "").append("><summary>")
+                .append(escape(String.valueOf(feature.getOrDefault("name", feature.get("uri"))))).append(" &rsaquo; <b>")
+                .append(escape(String.valueOf(element.get("name")))).append("</b> <small>")
+                .append(escape(((List<Object>) element.getOrDefault("tags", Collections.emptyList())).stream()
+                        .map(tag -> String.valueOf(((Map<String, Object>) tag).get("name")))
+                        .collect(Collectors.joining(" "))))
+                .append(String.format(" %.2fs", scenarioNanos(element) / 1e9))
+                .append("</small></summary><ul>");
+        for (String section : new String[]{"before", "steps", "after"}) {
+            for (Object stepObject : (List<Object>) element.getOrDefault(section, Collections.emptyList())) {
+                writeStep(out, (Map<String, Object>) stepObject, section);
+            }
+        }
+        out.append("</ul></details>\n");
+        html.write(out.toString());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeStep(StringBuilder out, Map<String, Object> step, String section) {
+        Map<String, Object> result = (Map<String, Object>) step.getOrDefault("result", Collections.emptyMap());
+        String status = String.valueOf(result.getOrDefault("status", "unknown"));
+        boolean hook = !"steps".equals(section);
+        boolean interesting = !hook || step.containsKey("embeddings") || step.containsKey("output") || !"passed".equals(status);
+        if (!interesting) {
+            return;
+        }
+        String name = hook
+                ? section + " hook " + ((Map<String, Object>) step.getOrDefault("match", Collections.emptyMap())).get("location")
+                : step.get("keyword") + String.valueOf(step.get("name"));
+        out.append("<li class=\"").append(escape(status)).append("\">").append(escape(name))
+                .append(" <small>").append(escape(status)).append("</small>");
+        if (result.containsKey("error_message")) {
+            out.append("<pre>").append(escape(String.valueOf(result.get("error_message")))).append("</pre>");
+        }
+        for (Object output : (List<Object>) step.getOrDefault("output", Collections.emptyList())) {
+            out.append("<pre>").append(escape(String.valueOf(output))).append("</pre>");
+        }
+        for (Object embeddingObject : (List<Object>) step.getOrDefault("embeddings", Collections.emptyList())) {
+            Map<String, Object> embedding = (Map<String, Object>) embeddingObject;
+            if ("text/uri-list".equals(embedding.get("mime_type"))) {
+                String path = new String(Base64.getDecoder().decode(String.valueOf(embedding.get("data"))), StandardCharsets.UTF_8);
+                out.append(" <a href=\"").append(escape(path)).append("\">").append(escape(path)).append("</a>");
+            }
+        }
+        out.append("</li>");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static long scenarioNanos(Map<String, Object> element) {
+        long nanos = 0;
+        for (String section : new String[]{"before", "steps", "after"}) {
+            for (Object step : (List<Object>) element.getOrDefault(section, Collections.emptyList())) {
+                Object result = ((Map<String, Object>) step).get("result");
+                if (result instanceof Map && ((Map<String, Object>) result).get("duration") instanceof Number) {
+                    nanos += ((Number) ((Map<String, Object>) result).get("duration")).longValue();
+                }
+            }
+        }
+        return nanos;
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
@@ -0,0 +1,296 @@
+package cydeo.utilities;
+
+import io.cucumber.plugin.ConcurrentEventListener;
+import io.cucumber.plugin.event.EmbedEvent;
+import io.cucumber.plugin.event.EventPublisher;
+import io.cucumber.plugin.event.HookTestStep;
+import io.cucumber.plugin.event.HookType;
+import io.cucumber.plugin.event.PickleStepTestStep;
+import io.cucumber.plugin.event.Result;
+import io.cucumber.plugin.event.Status;
+import io.cucumber.plugin.event.TestCase;
+import io.cucumber.plugin.event.TestCaseFinished;
+import io.cucumber.plugin.event.TestCaseStarted;
+import io.cucumber.plugin.event.TestRunFinished;
+import io.cucumber.plugin.event.TestSourceRead;
+import io.cucumber.plugin.event.TestStepFinished;
+import io.cucumber.plugin.event.WriteEvent;
+import org.openqa.selenium.json.Json;
+import org.openqa.selenium.json.JsonOutput;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * Cucumber plugin that appends one NDJSON line per finished scenario to the given file
+ * (cydeo.utilities.StreamingReporter:target/cucumber.ndjson), in the scenario format of cucumber.json.
+ * Only scenarios still running are held in memory, and attachments are written to target/artifacts
+ * and referenced by path instead of being embedded.
+ *
+ * When the run finishes, StreamingReportRenderer turns the stream into target/cucumber.json and
+ * target/cucumber-reports.html; it also merges the streams of several shards.
+ */
+public class StreamingReporter implements ConcurrentEventListener {
+
+    private static final Pattern FEATURE_LINE = Pattern.compile("^\\s*(Feature|Ability|Business Need):\\s*(.*)$");
+    private static final Path ARTIFACTS = Paths.get("target", "artifacts");
+    private static final AtomicInteger attachments = new AtomicInteger();
+
+    private final Path stream;
+    private final BufferedWriter writer;
+    private final Map<URI, Map<String, Object>> features = new ConcurrentHashMap<>();
+    private final Map<UUID, ScenarioInProgress> running = new ConcurrentHashMap<>();
+
+    public StreamingReporter(File file) {
+        this.stream = file.toPath();
+        try {
+            if (stream.getParent() != null) {
+                Files.createDirectories(stream.getParent());
+            }
+            this.writer = Files.newBufferedWriter(stream, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create " + file, e);
+        }
+    }
+
+    @Override
+    public void setEventPublisher(EventPublisher publisher) {
+        publisher.registerHandlerFor(TestSourceRead.class, this::sourceRead);
+        publisher.registerHandlerFor(TestCaseStarted.class, this::scenarioStarted);
+        publisher.registerHandlerFor(TestStepFinished.class, this::stepFinished);
+        publisher.registerHandlerFor(EmbedEvent.class, this::embedded);
+        publisher.registerHandlerFor(WriteEvent.class, this::written);
+        publisher.registerHandlerFor(TestCaseFinished.class, this::scenarioFinished);
+        publisher.registerHandlerFor(TestRunFinished.class, this::runFinished);
+    }
+
+    private void sourceRead(TestSourceRead event) {
+        Map<String, Object> feature = new LinkedHashMap<>();
+        feature.put("uri", relativize(event.getUri()));
+        String[] lines = event.getSource().split("\\r?\\n");
+        for (int i = 0; i < lines.length; i++) {
+            Matcher matcher = FEATURE_LINE.matcher(lines[i]);
+            if (matcher.matches()) {
+                feature.put("keyword", matcher.group(1));
+                feature.put("name", matcher.group(2).trim());
+                feature.put("line", i + 1);
+                // report tools merge the per-scenario entries of a feature by this id
+                feature.put("id", matcher.group(2).trim().toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]+", "-"));
+                break;
+            }
+        }
+        features.put(event.getUri(), feature);
+    }
+
+    private void scenarioStarted(TestCaseStarted event) {
+        running.put(event.getTestCase().getId(), new ScenarioInProgress(event.getInstant()));
+    }
+
+    private void embedded(EmbedEvent event) {
+        ScenarioInProgress scenario = running.get(event.getTestCase().getId());
+        if (scenario == null) {
+            return;
+        }
+        String path;
+        if (event.getMediaType().equals("text/uri-list")) {
+            path = new String(event.getData(), StandardCharsets.UTF_8);
+        } else {
+            path = writeAttachment(event.getData(), event.getMediaType());
+        }
+        Map<String, Object> embedding = new LinkedHashMap<>();
+        embedding.put("mime_type", "text/uri-list");
+        embedding.put("data", Base64.getEncoder().encodeToString(path.getBytes(StandardCharsets.UTF_8)));
+        if (event.getName() != null) {
+            embedding.put("name", event.getName());
+        }
+        scenario.embeddings.add(embedding);
+    }
+
+    private void written(WriteEvent event) {
+        ScenarioInProgress scenario = running.get(event.getTestCase().getId());
+        if (scenario != null) {
+            scenario.output.add(event.getText());
+        }
+    }
+
+    private void stepFinished(TestStepFinished event) {
+        ScenarioInProgress scenario = running.get(event.getTestCase().getId());
+        if (scenario == null) {
+            return;
+        }
+        Map<String, Object> step = new LinkedHashMap<>();
+        if (event.getTestStep() instanceof PickleStepTestStep) {
+            PickleStepTestStep pickleStep = (PickleStepTestStep) event.getTestStep();
+            step.put("keyword", pickleStep.getStep().getKeyword());
+            step.put("name", pickleStep.getStep().getText());
+            step.put("line", pickleStep.getStep().getLine());
+        }
+        step.put("match", Collections.singletonMap("location", event.getTestStep().getCodeLocation()));
+        step.put("result", result(event.getResult()));
+        if (!scenario.embeddings.isEmpty()) {
+            step.put("embeddings", new ArrayList<>(scenario.embeddings));
+            scenario.embeddings.clear();
+        }
+        if (!scenario.output.isEmpty()) {
+            step.put("output", new ArrayList<>(scenario.output));
+            scenario.output.clear();
+        }
+
+        if (event.getTestStep() instanceof HookTestStep) {
+            HookType type = ((HookTestStep) event.getTestStep()).getHookType();
+            if (type == HookType.BEFORE) {
+                scenario.before.add(step);
+            } else if (type == HookType.AFTER) {
+                scenario.after.add(step);
+            } else if (type == HookType.BEFORE_STEP) {
+                scenario.beforeStep.add(step);
+            } else if (!scenario.steps.isEmpty()) {
+                // after step hooks go with the step they ran after
+                @SuppressWarnings("unchecked")
+                List<Object> afterStep = (List<Object>) scenario.steps.get(scenario.steps.size() - 1)
+                        .computeIfAbsent("after", k -> new ArrayList<>());
+                afterStep.add(step);
+            }
+        } else {
+            if (!scenario.beforeStep.isEmpty()) {
+                step.put("before", new ArrayList<>(scenario.beforeStep));
+                scenario.beforeStep.clear();
+            }
+            scenario.steps.add(step);
+        }
+    }
+
+    private void scenarioFinished(TestCaseFinished event) {
+        ScenarioInProgress scenario = running.remove(event.getTestCase().getId());
+        if (scenario == null) {
+            return;
+        }
+        TestCase testCase = event.getTestCase();
+        Map<String, Object> feature = features.getOrDefault(testCase.getUri(),
+                Collections.singletonMap("uri", relativize(testCase.getUri())));
+
+        Map<String, Object> element = new LinkedHashMap<>();
+        element.put("id", (feature.getOrDefault("name", "") + ";" + testCase.getName()).toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9;]+", "-"));
+        element.put("keyword", testCase.getKeyword());
+        element.put("type", "scenario");
+        element.put("name", testCase.getName());
+        element.put("line", testCase.getLocation().getLine());
+        element.put("start_timestamp", scenario.started.toString());
+        List<Map<String, Object>> tags = new ArrayList<>();
+        for (String tag : testCase.getTags()) {
+            tags.add(Collections.singletonMap("name", tag));
+        }
+        element.put("tags", tags);
+        element.put("before", scenario.before);
+        element.put("steps", scenario.steps);
+        element.put("after", scenario.after);
+        element.put("status", event.getResult().getStatus().name().toLowerCase(Locale.ROOT));
+
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("feature", feature);
+        line.put("element", element);
+        append(line);
+    }
+
+    private void runFinished(TestRunFinished event) {
+        try {
+            synchronized (writer) {
+                writer.close();
+            }
+            StreamingReportRenderer.render(Collections.singletonList(stream), Paths.get("target"));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void append(Map<String, Object> line) {
+        StringBuilder json = new StringBuilder();
+        try (JsonOutput out = new Json().newOutput(json)) {
+            out.setPrettyPrint(false);
+            out.write(line);
+        }
+        synchronized (writer) {
+            try {
+                writer.write(json.toString());
+                writer.newLine();
+                // a crashed run still leaves every finished scenario in the stream
+                writer.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /*
+     * file: URIs relative to the working directory, like the built-in json plugin, so that reports of
+     * agents with different workspaces refer to the same features.
+     */
+    private static String relativize(URI uri) {
+        if (!"file".equals(uri.getScheme())) {
+            return uri.toString();
+        }
+        Path path = Paths.get(uri);
+        Path base = Paths.get("").toAbsolutePath();
+        return path.startsWith(base) ? "file:" + base.relativize(path).toString().replace('\\', '/') : uri.toString();
+    }
+
+    private static Map<String, Object> result(Result result) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("status", result.getStatus() == Status.UNUSED ? "skipped" : result.getStatus().name().toLowerCase(Locale.ROOT));
+        values.put("duration", result.getDuration().toNanos());
+        if (result.getError() != null) {
+            StringWriter stackTrace = new StringWriter();
+            result.getError().printStackTrace(new PrintWriter(stackTrace));
+            values.put("error_message", stackTrace.toString());
+        }
+        return values;
+    }
+
+    private static String writeAttachment(byte[] data, String mediaType) {
+        String extension = mediaType.contains("/") ? mediaType.substring(mediaType.indexOf('/') + 1).replaceAll("[^a-z0-9]+", "") : "bin";
+        Path path = ARTIFACTS.resolve("attachment-" + attachments.incrementAndGet() + "." + extension);
+        try {
+            Files.createDirectories(ARTIFACTS);
+            Files.write(path, data);
+        } catch (IOException e) {
+            System.out.println("Could not write attachment " + path + ": " + e.getMessage());
+        }
+        return Paths.get("target").relativize(path).toString().replace('\\', '/');
+    }
+
+    private static class ScenarioInProgress {
+        private final Instant started;
+        private final List<Map<String, Object>> before = new ArrayList<>();
+        private final List<Map<String, Object>> steps = new ArrayList<>();
+        private final List<Map<String, Object>> after = new ArrayList<>();
+        private final List<Map<String, Object>> beforeStep = new ArrayList<>();
+        private final List<Map<String, Object>> embeddings = new ArrayList<>();
+        private final List<String> output = new ArrayList<>();
+
+        ScenarioInProgress(Instant started) {
+            this.started = started;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package cydeo.utilities;
+
+import io.cucumber.plugin.ConcurrentEventListener;
+import io.cucumber.plugin.event.EventPublisher;
+import io.cucumber.plugin.event.HookTestStep;
+import io.cucumber.plugin.event.PickleStepTestStep;
+import io.cucumber.plugin.event.TestCaseFinished;
+import io.cucumber.plugin.event.TestRunFinished;
+import io.cucumber.plugin.event.TestStepFinished;
+
+/*
+ * Cucumber plugin that records step, hook and scenario durations into the run metrics histograms,
+ * next to the WebDriver command latencies, and writes target/run-metrics.json when the run finishes.
+ */
+public class TimingPlugin implements ConcurrentEventListener {
+
+    @Override
+    public void setEventPublisher(EventPublisher publisher) {
+        publisher.registerHandlerFor(TestStepFinished.class, this::stepFinished);
+        publisher.registerHandlerFor(TestCaseFinished.class, this::scenarioFinished);
+        publisher.registerHandlerFor(TestRunFinished.class, this::runFinished);
+    }
+
+    private void stepFinished(TestStepFinished event) {
+        long nanos = event.getResult().getDuration().toNanos();
+        if (event.getTestStep() instanceof PickleStepTestStep) {
+            RunMetrics.recordNanos("step." + ((PickleStepTestStep) event.getTestStep()).getPattern(), nanos);
+        } else if (event.getTestStep() instanceof HookTestStep) {
+            HookTestStep hook = (HookTestStep) event.getTestStep();
+            String location = hook.getCodeLocation();
+            int parameters = location.indexOf('(');
+            RunMetrics.recordNanos("hook." + (parameters < 0 ? location : location.substring(0, parameters)), nanos);
+        }
+    }
+
+    private void scenarioFinished(TestCaseFinished event) {
+        RunMetrics.recordNanos("scenario", event.getResult().getDuration().toNanos());
+    }
+
+    private void runFinished(TestRunFinished event) {
+        RunMetrics.writeReport();
+    }
+}
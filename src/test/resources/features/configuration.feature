@@ -0,0 +1,5 @@
+Feature: The test configuration is usable
+
+  @api
+  Scenario: site under test
+    Then the configured site is a valid web address